@@ -0,0 +1,327 @@
+package mochaxx;
+
+import mochaxx.compiler.CompileError;
+import mochaxx.compiler.IncludeCache;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A long running compile server bound to the loopback interface.
+ *
+ * Clients send their working directory and the same arguments Start accepts; the
+ * daemon runs them in this VM, so the JIT-compiled front end, the included sources
+ * and the parsed classes of included libraries are reused, and streams stdout /
+ * stderr back as frames followed by the exit status.
+ *
+ * Every request starts with the token the daemon writes at startup to a file only its
+ * owner can read; a request without it is refused before its arguments are read, so no
+ * one else can make the daemon read or write files on the owner's behalf.
+ */
+public class CompileDaemon
+{
+    private static final byte EXIT = 0;
+    private static final byte OUT  = 1;
+    private static final byte ERR  = 2;
+
+    private static final String WARMUP =
+            "class Warmup\n{\n    int value\n\n    int get()\n    {\n        return value\n    }\n}\n";
+
+    private final int       port;
+    private ServerSocket    server;
+    private String          token;
+    private volatile boolean running;
+
+    /**
+     * Writes everything as frames of one channel onto the client connection.
+     */
+    private static class FrameOutputStream extends OutputStream
+    {
+        private final DataOutputStream  stream;
+        private final byte              channel;
+
+        FrameOutputStream(DataOutputStream stream, byte channel)
+        {
+            this.stream = stream;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+                return;
+
+            synchronized (stream)
+            {
+                stream.writeByte(channel);
+                stream.writeInt(len);
+                stream.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            synchronized (stream)
+            {
+                stream.flush();
+            }
+        }
+    }
+
+    public CompileDaemon(int port)
+    {
+        this.port = port;
+    }
+
+    public void serve() throws IOException
+    {
+        Start.routeOutput();
+        IncludeCache.setParsedClasses(new IncludeCache(IncludeCache.DEFAULT_CAPACITY));
+
+        warmup();
+
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        token = writeToken(port);
+        running = true;
+
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "mocha-daemon-request");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        System.out.println("daemon: listening on port " + port + ".");
+
+        try {
+            while (running)
+            {
+                final Socket socket;
+
+                try {
+                    socket = server.accept();
+                } catch (SocketException e)
+                {
+                    if (!running)
+                        break;
+
+                    throw e;
+                }
+
+                executor.execute(() -> handle(socket));
+            }
+        } finally {
+            executor.shutdown();
+            server.close();
+            Files.deleteIfExists(tokenFile(port));
+        }
+
+        System.out.println("daemon: stopped.");
+    }
+
+    /**
+     * @return where the daemon on 'port' keeps the token that allows shutting it down.
+     */
+    static Path tokenFile(int port)
+    {
+        return new File(System.getProperty("java.io.tmpdir"), "mocha-daemon-" + port + ".token").toPath();
+    }
+
+    /**
+     * Creates the token file, readable and writable by this user only, before anything
+     * secret is written to it.
+     */
+    private static String writeToken(int port) throws IOException
+    {
+        byte    secret[]    = new byte[32];
+        Path    path        = tokenFile(port);
+
+        new SecureRandom().nextBytes(secret);
+        Files.deleteIfExists(path);
+
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e)
+        {
+            Files.createFile(path);
+
+            File file = path.toFile();
+            file.setReadable(false, false);
+            file.setWritable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(true, true);
+        } catch (FileAlreadyExistsException e)
+        {
+            throw new IOException("token file '" + path + "' was created by someone else.", e);
+        }
+
+        String token = Base16.encode(secret);
+        Files.write(path, token.getBytes(StandardCharsets.UTF_8));
+
+        return token;
+    }
+
+    private boolean isToken(String token)
+    {
+        return MessageDigest.isEqual(this.token.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Runs a small program through the whole pipeline a few times so the first
+     * real request does not pay for class loading and interpretation.
+     */
+    private void warmup()
+    {
+        Start.bind(new ByteArrayOutputStream(), new ByteArrayOutputStream());
+
+        try {
+            for (int i = 0; i < 20; i ++)
+                Start.compile(WARMUP, new File("warmup.mocha"));
+        } catch (CompileError e)
+        {
+        } finally {
+            Start.unbind();
+        }
+    }
+
+    private void handle(Socket socket)
+    {
+        try (Socket client = socket)
+        {
+            DataInputStream     in  = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+            DataOutputStream    out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+
+            if (!isToken(in.readUTF()))
+            {
+                new FrameOutputStream(out, ERR).write("daemon: request refused, the token does not match.\n".getBytes(StandardCharsets.UTF_8));
+                exit(out, 1);
+                return;
+            }
+
+            String  directory   = in.readUTF();
+            String  args[]      = new String[in.readInt()];
+
+            for (int i = 0; i < args.length; i ++)
+                args[i] = in.readUTF();
+
+            int status = 0;
+
+            if (args.length == 1 && args[0].equals("-shutdown"))
+            {
+                running = false;
+                server.close();
+            }
+            else
+                status = run(directory, args, out);
+
+            exit(out, status);
+        } catch (IOException e)
+        {
+        }
+    }
+
+    private static void exit(DataOutputStream out, int status) throws IOException
+    {
+        synchronized (out)
+        {
+            out.writeByte(EXIT);
+            out.writeInt(status);
+            out.flush();
+        }
+    }
+
+    private int run(String directory, String args[], DataOutputStream out)
+    {
+        Start.bind(new FrameOutputStream(out, OUT), new FrameOutputStream(out, ERR));
+
+        try {
+            return new Start(new File(directory), true).run(args);
+        } catch (IOException e)
+        {
+            System.err.println("MochaAssembler: " + e.getMessage());
+            return 1;
+        } catch (RuntimeException e)
+        {
+            System.err.println("MochaAssembler: internal error: " + e.getMessage());
+            return 1;
+        } finally {
+            Start.unbind();
+        }
+    }
+
+    /**
+     * Sends the arguments to a daemon on this machine, along with the token it wrote, and
+     * replays its output.
+     *
+     * @return the exit status the daemon reported.
+     */
+    public static int forward(int port, String args[]) throws IOException
+    {
+        Socket socket;
+        String token;
+
+        try {
+            token = new String(Files.readAllBytes(tokenFile(port)), StandardCharsets.UTF_8);
+        } catch (IOException e)
+        {
+            throw new CompileError("MochaAssembler: cannot read the token of the compile daemon on port " + port + ".", 1);
+        }
+
+        try {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        } catch (ConnectException e)
+        {
+            throw new CompileError("MochaAssembler: no compile daemon listening on port " + port + ".", 1);
+        }
+
+        try (Socket daemon = socket)
+        {
+            DataOutputStream    out = new DataOutputStream(new BufferedOutputStream(daemon.getOutputStream()));
+            DataInputStream     in  = new DataInputStream(new BufferedInputStream(daemon.getInputStream()));
+
+            out.writeUTF(token);
+            out.writeUTF(new File("").getAbsolutePath());
+            out.writeInt(args.length);
+
+            for (String arg : args)
+                out.writeUTF(arg);
+
+            out.flush();
+
+            while (true)
+            {
+                byte channel = in.readByte();
+
+                if (channel == EXIT)
+                    return in.readInt();
+
+                byte data[] = new byte[in.readInt()];
+                in.readFully(data);
+
+                PrintStream stream = channel == OUT ? System.out : System.err;
+                stream.write(data);
+                stream.flush();
+            }
+        }
+    }
+}
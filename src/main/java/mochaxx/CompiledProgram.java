@@ -1,6 +1,9 @@
 package mochaxx;
 
+import mochaxx.compiler.CompileError;
+import mochaxx.compiler.InfixToPostFixEvalution;
 import mochaxx.compiler.Modifier;
+import mochaxx.compiler.Symbols;
 import mochaxx.compiler.Token;
 import mochaxx.compiler.structure.OpcodeStream;
 
@@ -16,6 +19,7 @@ public class CompiledProgram
     {
         private CLASS       parent;
         private String      name;
+        private int         id;
         private FIELD       fields[];
         private FUNCTION    functions[];
 
@@ -25,10 +29,10 @@ public class CompiledProgram
             return name;
         }
 
-        public boolean containsField(String toString)
+        public boolean containsField(int symbol)
         {
             for (FIELD field : fields)
-                if (field.name.equals(toString))
+                if (field.id == symbol)
                     return true;
 
             return false;
@@ -50,35 +54,33 @@ public class CompiledProgram
             return false;
         }
 
-        public void AccessField(CLASS accessor, String field)
+        public void AccessField(CLASS accessor, int field)
         {
             FIELD field1 = fields[getField(field)];
 
             if (!accessor.name.equals(name) && field1.accesslevel == 2)
             {
-                System.err.println("public access not allowed for field '" + field + "' in class '" + name + "'.");
-                System.exit(0);
+                throw new CompileError("public access not allowed for field '" + symbols.name(field) + "' in class '" + name + "'.");
             } else if (accessor.IsSubclass(this) && field1.accesslevel == 1)
             {
-                System.err.println("protected access not allowed for field '" + field + "' in class '" + name + "'.");
-                System.exit(0);
+                throw new CompileError("protected access not allowed for field '" + symbols.name(field) + "' in class '" + name + "'.");
             }
         }
 
-        public int getField(String toString)
+        public int getField(int symbol)
         {
             for (int i = 0; i < fields.length; i ++)
             {
                 FIELD field = fields[i];
 
-                if (field.name.equals(toString))
+                if (field.id == symbol)
                     return i;
             }
 
             return -1;
         }
 
-        public int getFieldPosition(String toString)
+        public int getFieldPosition(int symbol)
         {
             int fieldid = 0;
 
@@ -86,7 +88,7 @@ public class CompiledProgram
             {
                 FIELD field = fields[i];
 
-                if (field.name.equals(toString))
+                if (field.id == symbol)
                     return fieldid;
 
                 fieldid += field.size;
@@ -95,10 +97,10 @@ public class CompiledProgram
             return -1;
         }
 
-        public boolean hasoperator(String subscript)
+        public boolean hasoperator(int symbol)
         {
             for (FUNCTION function : functions)
-                if (function.typename.equals("operator") && function.name.equals(subscript))
+                if (function.type == Symbols.OPERATOR && function.id == symbol)
                     return true;
 
             return false;
@@ -109,6 +111,8 @@ public class CompiledProgram
     {
         String name;
         String typename;
+        int    id;
+        int    type;
         int    size;
 
         int accesslevel;
@@ -134,55 +138,24 @@ public class CompiledProgram
 
         public void calculatesize()
         {
-            switch (typename)
+            if (type == Symbols.VOID || type == Symbols.MEMOBJECT)
             {
-                case "char":
-                case "uint8":
-                case "int8":
-                case "bool":
-                case "boolean":
-                    size = 1;
-                    break;
-                case "short":
-                case "int16":
-                case "uint16":
-                    size = 2;
-                    break;
-                case "int":
-                case "uint":
-                case "int32":
-                case "uint32":
-                    size = 4;
-                    break;
-                case "long":
-                case "int64":
-                case "uint64":
+                if (allowmemoryuse)
                     size = 8;
-                    break;
-                case "float":
-                    size = 4;
-                    break;
-                case "double":
-                    size = 8;
-                    break;
-                case "void":
-                case "MemObject":
-                    if (allowmemoryuse)
-                        size = 8;
-                    else
-                    {
-                        System.err.println("memory manipulation not allowed.");
-                        System.exit(0);
-                    }
-                    break;
-                default:
-                    if (!classes.containsKey(typename) && !typename.equals("void") && !typename.equals("MemObject"))
-                    {
-                        System.err.println("use of undeclared type " + typename + ".");
-                        System.exit(0);
-                    }
-                    size = 8;
-                    break;
+                else
+                {
+                    throw new CompileError("memory manipulation not allowed.");
+                }
+            }
+            else if (type < Symbols.SIZES.length)
+                size = Symbols.SIZES[type];
+            else
+            {
+                if (type(type) == null)
+                {
+                    throw new CompileError("use of undeclared type " + typename + ".");
+                }
+                size = 8;
             }
         }
     }
@@ -191,6 +164,8 @@ public class CompiledProgram
     {
         String name;
         String typename;
+        int    id;
+        int    type;
 
         int accesslevel;
         boolean constant;
@@ -199,7 +174,10 @@ public class CompiledProgram
         int     returnsize;
 
         Token parn_token;
-        Token body_token;
+        /**
+         * The METHOD_DECLARATION; its body is asked for when the function is generated.
+         */
+        Token declaration;
 
         @Override
         public String toString()
@@ -209,68 +187,60 @@ public class CompiledProgram
 
         public void calculatesize()
         {
-            switch (typename)
+            if (type == Symbols.MEMOBJECT)
             {
-                case "char":
-                case "uint8":
-                case "int8":
-                case "bool":
-                case "boolean":
-                    returnsize = 1;
-                    break;
-                case "short":
-                case "int16":
-                case "uint16":
-                    returnsize = 2;
-                    break;
-                case "int":
-                case "uint":
-                case "int32":
-                case "uint32":
-                    returnsize = 4;
-                    break;
-                case "long":
-                case "int64":
-                case "uint64":
-                    returnsize = 8;
-                    break;
-                case "float":
-                    returnsize = 4;
-                    break;
-                case "double":
-                    returnsize = 8;
-                    break;
-                case "MemObject":
-                    if (allowmemoryuse)
-                        returnsize = 8;
-                    else
-                    {
-                        System.err.println("memory manipulation not allowed.");
-                        System.exit(0);
-                    }
-                    break;
-                case "void":
-                case "operator":
-                    returnsize = 0;
-                    break;
-                default:
-                    if (!classes.containsKey(typename) && !typename.equals("void"))
-                    {
-                        System.err.println("use of undeclared type " + typename + ".");
-                        System.exit(0);
-                    }
+                if (allowmemoryuse)
                     returnsize = 8;
-                    break;
+                else
+                {
+                    throw new CompileError("memory manipulation not allowed.");
+                }
+            }
+            else if (type == Symbols.VOID || type == Symbols.OPERATOR)
+                returnsize = 0;
+            else if (type < Symbols.SIZES.length)
+                returnsize = Symbols.SIZES[type];
+            else
+            {
+                if (type(type) == null)
+                {
+                    throw new CompileError("use of undeclared type " + typename + ".");
+                }
+                returnsize = 8;
             }
         }
     }
 
+    /**
+     * 'classes' keeps the order functions are written in, 'types' finds a class by the symbol of its name.
+     */
     HashMap<String, CLASS> classes = new HashMap<>();
+    private CLASS                   types[] = new CLASS[0];
+    private final ParsedProgram     program;
+    private final String            main;
+    private final Symbols           symbols;
+    private final int               thisSymbol;
+    private final int               subscriptSymbol;
     private boolean                 allowmemoryuse;
     private boolean                 allowexcasting;
 
     public CompiledProgram(ParsedProgram program)
     {
+        this(program, null);
+    }
+
+    /**
+     * @param main the file the program was compiled from. A lazy program only generates the
+     *             functions declared there and those they reach; see reachable().
+     */
+    public CompiledProgram(ParsedProgram program, String main)
+    {
+        this.program    = program;
+        this.main       = main;
+        symbols         = program.getSymbols();
+        thisSymbol      = symbols.intern("this");
+        subscriptSymbol = symbols.intern("subscript");
+
         System.out.println("compilation started.");
         for (CompilerFlag flag : program.GetCompilerFlags())
             switch (flag)
@@ -287,6 +257,7 @@ public class CompiledProgram
             {
                 CLASS class_ = new CLASS();
                 class_.name     = token.get(Token.Type.NAME).toString();
+                class_.id       = symbol(token.get(Token.Type.NAME));
                 List<FIELD> fields = new ArrayList<>();
                 List<FUNCTION> functions = new ArrayList<>();
 
@@ -299,6 +270,8 @@ public class CompiledProgram
 
                         field.name = class_token.get(Token.Type.NAME).toString();
                         field.typename = class_token.get(Token.Type.VARTYPE).toString();
+                        field.id = symbol(class_token.get(Token.Type.NAME));
+                        field.type = symbol(class_token.get(Token.Type.VARTYPE));
 
                         if (class_token.isModifier(Modifier.PUBLIC))
                             field.accesslevel = 0;
@@ -322,6 +295,8 @@ public class CompiledProgram
 
                         function.name = class_token.get(Token.Type.NAME).toString();
                         function.typename = class_token.get(Token.Type.VARTYPE).toString();
+                        function.id = symbol(class_token.get(Token.Type.NAME));
+                        function.type = symbol(class_token.get(Token.Type.VARTYPE));
 
                         if (class_token.isModifier(Modifier.PUBLIC))
                             function.accesslevel = 0;
@@ -340,12 +315,11 @@ public class CompiledProgram
 
                         if (class_token.isModifier(Modifier.NATIVE))
                         {
-                            System.err.println(function.name + " in " + class_.name + " cannot be 'native' because it's declared.");
-                            System.exit(0);
+                            throw new CompileError(function.name + " in " + class_.name + " cannot be 'native' because it's declared.");
                         }
 
                         function.parn_token = class_token.get(Token.Type.PARENTHESIS);
-                        function.body_token = class_token.get(Token.Type.BRACES);
+                        function.declaration = class_token;
                     } else
                     if (class_token.equals(Token.Type.METHOD_EMPTY_DECLARATION))
                     {
@@ -354,6 +328,8 @@ public class CompiledProgram
 
                         function.name = class_token.get(Token.Type.NAME).toString();
                         function.typename = class_token.get(Token.Type.VARTYPE).toString();
+                        function.id = symbol(class_token.get(Token.Type.NAME));
+                        function.type = symbol(class_token.get(Token.Type.VARTYPE));
 
                         if (class_token.isModifier(Modifier.PUBLIC))
                             function.accesslevel = 0;
@@ -377,8 +353,7 @@ public class CompiledProgram
 
                         if (class_token.isModifier(Modifier.NATIVE) && !class_token.isModifier(Modifier.STATIC))
                         {
-                            System.err.println("native functions must be static.");
-                            System.exit(0);
+                            throw new CompileError("native functions must be static.");
                         }
                     }
                 }
@@ -391,10 +366,14 @@ public class CompiledProgram
 
                 if (classes.containsKey(class_.name))
                 {
-                    System.err.println("redefenition of class type '" + class_.name + "'.");
-                    System.exit(0);
+                    throw new CompileError("redefenition of class type '" + class_.name + "'.");
                 }
                 classes.put(class_.name, class_);
+
+                if (class_.id >= types.length)
+                    types = Arrays.copyOf(types, Math.max(class_.id + 1, types.length * 2));
+
+                types[class_.id] = class_;
             }
         }
 
@@ -406,12 +385,11 @@ public class CompiledProgram
 
                 if (token.get(Token.Type.PARENT_CLASS) != null)
                 {
-                    classes.get(name).parent = classes.get(token.get(Token.Type.PARENT_CLASS).toString());
+                    classes.get(name).parent = type(symbol(token.get(Token.Type.PARENT_CLASS)));
 
                     if (classes.get(name).parent == null)
                     {
-                        System.err.println("error in class '" + name + "'.\nparent of type '" + token.get(Token.Type.PARENT_CLASS).toString() + "' does not exist.");
-                        System.exit(0);
+                        throw new CompileError("error in class '" + name + "'.\nparent of type '" + token.get(Token.Type.PARENT_CLASS).toString() + "' does not exist.");
                     }
                 }
             }
@@ -431,19 +409,76 @@ public class CompiledProgram
 
         OpcodeStream stream = new OpcodeStream();
 
+        Set<FUNCTION> reachable = program.isLazy() ? reachable() : null;
 
         for (String string : classes.keySet())
         {
             CLASS _class_ = classes.get(string);
 
             for (FUNCTION function : _class_.functions)
-                if (!function.isnative)
+                if (!function.isnative && (reachable == null || reachable.contains(function)))
                     invoke(stream, function.isstatic ? null : _class_, _class_.name, function);
         }
 
         System.out.println(stream);
     }
 
+    /**
+     * @return the functions a lazy program generates: those declared in the main file (or in
+     * no file at all), and every function called in the body of one that is generated. Calls
+     * are not resolved to a class yet, so a call reaches every function of that name, and an
+     * operator reaches every operator function named after it ('subscript', 'equals',
+     * 'addition' and so on). Only these bodies are ever parsed.
+     */
+    private Set<FUNCTION> reachable()
+    {
+        Map<String, List<FUNCTION>> named       = new HashMap<>();
+        Set<FUNCTION>               reachable   = new HashSet<>();
+        Deque<FUNCTION>             pending     = new ArrayDeque<>();
+
+        for (CLASS class_ : classes.values())
+        {
+            for (FUNCTION function : class_.functions)
+            {
+                named.computeIfAbsent(function.name, name -> new ArrayList<>()).add(function);
+
+                String file = function.declaration == null ? null : function.declaration.get(Token.Type.NAME).file;
+
+                if (!function.isnative && (main == null || file == null || file.equals(main)) && reachable.add(function))
+                    pending.add(function);
+            }
+        }
+
+        while (!pending.isEmpty())
+        {
+            Set<String> names = new HashSet<>();
+
+            calls(program.getMethodBody(pending.poll().declaration), names);
+
+            for (String name : names)
+                for (FUNCTION function : named.getOrDefault(name, Collections.emptyList()))
+                    if (!function.isnative && reachable.add(function))
+                        pending.add(function);
+        }
+
+        return reachable;
+    }
+
+    /**
+     * Adds the name of every method a body calls, and of every operator function its
+     * operators would call, to 'names'. Fields and variables are not calls, whatever their name.
+     */
+    private static void calls(Token token, Set<String> names)
+    {
+        if (token.equals(Token.Type.METHOD_CALL))
+            names.add(token.get(Token.Type.NAME).toString());
+        else if (token.equals(Token.Type.SUBSCRIPT) || token.equals(Token.Type.EQUALS) || InfixToPostFixEvalution.isOperator(token.getType()))
+            names.add(token.getType().name().toLowerCase());
+
+        for (Token child : token.getChildren())
+            calls(child, names);
+    }
+
     private class
     STACKFIELD
     {
@@ -451,14 +486,17 @@ public class CompiledProgram
         {
         }
 
-        STACKFIELD(String name, String type)
+        STACKFIELD(int name, int type)
         {
             this.name = name;
             this.type = type;
         }
 
-        String name;
-        String type;
+        /**
+         * Symbols; -1 for a value without a name.
+         */
+        int    name = -1;
+        int    type;
         int    indx;
     }
 
@@ -478,13 +516,13 @@ public class CompiledProgram
         if (__this__ != null)
         {
             STACKFIELD field = new STACKFIELD();
-            field.name = "this";
-            field.type = __this__.name;
+            field.name = thisSymbol;
+            field.type = __this__.id;
 
             stack_push(stack_sim, field);
         }
 
-        Queue<Token> tokenQueue = new LinkedList<>(__funcn__.body_token.getChildren());
+        Queue<Token> tokenQueue = new LinkedList<>(program.getMethodBody(__funcn__.declaration).getChildren());
 //        String funcidentifier = __funcn__.name + "_" + __funcn__.typename;
         String funcidentifier = __nmsp__ + "_" + __funcn__.name;
 
@@ -510,20 +548,22 @@ public class CompiledProgram
                 return;
 
                 case IDENTIFIER:
-                if (stack_containskey(stack_sim, token.toString()))
+                int symbol = symbol(token);
+
+                if (stack_containskey(stack_sim, symbol))
                 {
-                    stack_movetotop(stream, stack_sim, token.toString());
-                } else if (__this__ != null && __this__.containsField(token.toString()))
+                    stack_movetotop(stream, stack_sim, symbol);
+                } else if (__this__ != null && __this__.containsField(symbol))
                 {
-                    stack_movetotop(stream, stack_sim, "this");
+                    stack_movetotop(stream, stack_sim, thisSymbol);
                     stream.op_dup("duplicate this.");
 //                    stack_sim.push(stack_sim.peek());
-                    stream.op_load(__this__.getFieldPosition(token.toString()), "load " + token.toString() + " from object (" + __this__.name + ").");
+                    stream.op_load(__this__.getFieldPosition(symbol), "load " + token.toString() + " from object (" + __this__.name + ").");
 
                     STACKFIELD field = new STACKFIELD();
                     stack_push(stack_sim, field);
-                    field.type = __this__.fields[__this__.getField(token.toString())].typename;
-                    field.name = __this__.name + "_" + __this__.fields[__this__.getField(token.toString())].name;
+                    field.type = __this__.fields[__this__.getField(symbol)].type;
+                    field.name = symbols.intern(__this__.name + "_" + __this__.fields[__this__.getField(symbol)].name);
                 } else
                     err(token, "use of undeclared identifier '" + token.toString() + "'");
                 break;
@@ -531,27 +571,38 @@ public class CompiledProgram
             case SUBSCRIPT:
                 interpret(stream, token.getChild(0), __this__, stack_sim, false);
 
-                if (classes.containsKey(stack_sim.peek().type))
+                if (type(stack_sim.peek().type) != null)
                 {
-                    if (classes.get(stack_sim.peek().type).hasoperator("subscript"))
-                        callmethod(stream, "subscript", classes.get(stack_sim.peek().type), stack_sim);
+                    if (type(stack_sim.peek().type).hasoperator(subscriptSymbol))
+                        callmethod(stream, "subscript", type(stack_sim.peek().type), stack_sim);
                     else
-                        err(token, "subscript modifier not allowed on class type '" + stack_sim.peek().type + "'.");
+                        err(token, "subscript modifier not allowed on class type '" + symbols.name(stack_sim.peek().type) + "'.");
                 }
-                else if ((stack_sim.peek().type).equals("MemObject") || (stack_sim.peek().type).equals("void"))
+                else if (stack_sim.peek().type == Symbols.MEMOBJECT || stack_sim.peek().type == Symbols.VOID)
                 {
                     stack_sim.pop();
                     interpret(stream, token.getChild(1), __this__, stack_sim, false);
                     stream.op_add(1, "add to pointer.");
                 }
                 else
-                    err(token, "subscript modifier not allowed on primitive type '" + stack_sim.peek().type + "'.");
+                    err(token, "subscript modifier not allowed on primitive type '" + symbols.name(stack_sim.peek().type) + "'.");
 
                 break;
 
             case NUMBER:
-                stack_push(stack_sim, new STACKFIELD(System.currentTimeMillis() + "", "int"));
-                stream.op_psh(token.toString());
+            case DECIMAL:
+                stack_push(stack_sim, new STACKFIELD(-1, Symbols.INT));
+
+                Number value = token.value != null ? token.value : Token.literal(token.toString());
+
+                if (value == null && token.toString().matches("[0-9_]+[lL]?"))
+                    err(token, "integer literal '" + token + "' does not fit in a long.");
+                else if (value == null)
+                    err(token, "malformed number literal '" + token + "'.");
+                else if (!(value instanceof Long))
+                    err(token, "floating literal '" + token + "' is not supported, only integer literals can be pushed.");
+
+                stream.op_psh(value.longValue());
                 break;
             case STATEMENT:
                 for (Token toke : token)
@@ -566,10 +617,10 @@ public class CompiledProgram
                     err(token, "static access is nested.");
                 else
                 {
-                    if (!classes.containsKey(stack_sim.peek().type))
+                    if (type(stack_sim.peek().type) == null)
                         err(token.getChild(1), "'" + strip(token.getChild(0)) + "' is not an object.");
 
-                    proc_interpret(__this__, stream, token.getChild(1), classes.get(stack_sim.peek().type), stack_sim);
+                    proc_interpret(__this__, stream, token.getChild(1), type(stack_sim.peek().type), stack_sim);
                 }
 
                 break;
@@ -600,17 +651,19 @@ public class CompiledProgram
         switch (token.getType())
         {
             case IDENTIFIER:
-                if (__typeoflastproc__ != null && __typeoflastproc__.containsField(token.toString()))
+                int symbol = symbol(token);
+
+                if (__typeoflastproc__ != null && __typeoflastproc__.containsField(symbol))
                 {
                     STACKFIELD field = new STACKFIELD();
                     stack_sim.pop();
                     stack_push(stack_sim, field);
 
-                    __typeoflastproc__.AccessField(__this__, token.toString());
+                    __typeoflastproc__.AccessField(__this__, symbol);
 
-                    field.type = __typeoflastproc__.fields[__typeoflastproc__.getField(token.toString())].typename;
-                    field.name = "tempproc_" + __typeoflastproc__.name + "_" + __typeoflastproc__.fields[__typeoflastproc__.getField(token.toString())].name;
-                    stream.op_load(__typeoflastproc__.getFieldPosition(token.toString()), "load " + token.toString() + " from object (" + __typeoflastproc__.name + ").");
+                    field.type = __typeoflastproc__.fields[__typeoflastproc__.getField(symbol)].type;
+                    field.name = symbols.intern("tempproc_" + __typeoflastproc__.name + "_" + __typeoflastproc__.fields[__typeoflastproc__.getField(symbol)].name);
+                    stream.op_load(__typeoflastproc__.getFieldPosition(symbol), "load " + token.toString() + " from object (" + __typeoflastproc__.name + ").");
                 } else
                     err(token, "use of undeclared identifier '" + token.toString() + "'");
                 break;
@@ -628,10 +681,10 @@ public class CompiledProgram
                     err(token, "static access is nested.");
                 else
                 {
-                    if (!classes.containsKey(stack_sim.peek().type))
+                    if (type(stack_sim.peek().type) == null)
                         err(token.getChild(1), "'" + strip(token.getChild(0)) + "' is not an object.");
 
-                    proc_interpret(__typeoflastproc__, stream, token.getChild(1), classes.get(stack_sim.peek().type), stack_sim);
+                    proc_interpret(__typeoflastproc__, stream, token.getChild(1), type(stack_sim.peek().type), stack_sim);
                 }
 
                 break;
@@ -644,7 +697,7 @@ public class CompiledProgram
     }
 
     private
-    void stack_movetotop(OpcodeStream stream, Stack<STACKFIELD> stack_sim, String field)
+    void stack_movetotop(OpcodeStream stream, Stack<STACKFIELD> stack_sim, int field)
     {
         if (stack_sim.size() < 2)
             return;
@@ -652,7 +705,7 @@ public class CompiledProgram
         int field_item = stack_getkey(stack_sim, field);
         int maxitem___ = stack_sim.size() - 1;
 
-        stream.op_swap(field_item, "get " + field);
+        stream.op_swap(field_item, "get " + symbols.name(field));
 
         STACKFIELD item = stack_sim.get(field_item);
         STACKFIELD item2 = stack_sim.get(maxitem___);
@@ -665,13 +718,13 @@ public class CompiledProgram
     }
 
     private
-    boolean stack_containskey(Stack<STACKFIELD> stack_sim, String field)
+    boolean stack_containskey(Stack<STACKFIELD> stack_sim, int field)
     {
         return stack_getkey(stack_sim, field) >= 0;
     }
 
     private
-    int stack_getkey(Stack<STACKFIELD> stack_sim, String field)
+    int stack_getkey(Stack<STACKFIELD> stack_sim, int field)
     {
         int r = -1;
 
@@ -679,16 +732,33 @@ public class CompiledProgram
         {
             STACKFIELD stackfield = stack_sim.get(i);
 
-            if (stackfield.name.equals(field))
+            if (stackfield.name == field)
                 r = i;
         }
 
         return r;
     }
 
+    /**
+     * @return the symbol of a name, interning it if the token did not come from the lexer.
+     */
+    private
+    int symbol(final Token token)
+    {
+        return token.symbol >= 0 ? token.symbol : symbols.intern(token.toString());
+    }
+
+    /**
+     * @return the class a symbol names, or null if it names none.
+     */
+    private
+    CLASS type(int symbol)
+    {
+        return symbol >= 0 && symbol < types.length ? types[symbol] : null;
+    }
+
     void err(final Token token, final String errstring)
     {
-        System.err.println("error at line '" + token.line + "'.\n" + errstring + "\n");
-        System.exit(0);
+        throw new CompileError("error at line '" + token.line + "'" + (token.file == null ? "" : " of '" + token.file + "'") + ".\n" + errstring + "\n");
     }
 }
\ No newline at end of file
@@ -2,180 +2,282 @@ package mochaxx;
 
 import mochaxx.compiler.*;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
 
 import static mochaxx.compiler.InfixToPostFixEvalution.convertToPostfix;
 import static mochaxx.compiler.Token.Type.*;
 
 public class ParsedProgram
 {
-    private static Set<CompilerFlag> mCompilerFlags;
+    private Set<CompilerFlag> mCompilerFlags;
     private Queue<Token> mTokens;
+    private Symbols mSymbols;
+    private Set<Token> mPending;
+    private boolean mLazy;
 
     public ParsedProgram(LexedProgram lexedProgram)
+    {
+        this(lexedProgram, false);
+    }
+
+    /**
+     * @param lazy leave every method body as packClassFields found it (the tokens between its
+     *             braces) and only organize it once getMethodBody() asks for it. Errors in a
+     *             body that is never asked for are not reported, and the parse tree is not
+     *             printed, since most of it is never parsed.
+     */
+    public ParsedProgram(LexedProgram lexedProgram, boolean lazy)
     {
         mTokens = new LinkedList<>();
         mCompilerFlags = new LinkedHashSet<>();
+        mSymbols = lexedProgram.getSymbols();
+        mLazy = lazy;
 
-        mTokens.addAll(packClasses(new TokenStream(lexedProgram.getCleanTokens())));
+        IncludeCache    cache       = IncludeCache.getParsedClasses();
+        List<Token>     structs     = new ArrayList<>();
+        List<String>    keys        = new ArrayList<>();
+        List<Integer>   sizes       = new ArrayList<>();
 
-        for (Token struct : mTokens)
-            packClassFields(struct);
+        for (Token struct : packClasses(new TokenStream(lexedProgram.getTokenSource()), mCompilerFlags))
+        {
+            if (cache != null)
+            {
+                String  tokens  = fingerprint(struct, new StringBuilder()).toString();
+                String  key     = IncludeCache.hash(ByteBuffer.wrap(tokens.getBytes(StandardCharsets.UTF_8)));
+                Token   parsed  = cache.getParsedClass(key);
+
+                if (parsed != null)
+                {
+                    mTokens.add(parsed.copy(mSymbols));
+                    continue;
+                }
+
+                keys.add(key);
+                sizes.add(tokens.length());
+            }
+
+            mTokens.add(struct);
+            structs.add(struct);
+        }
+
+        forEach(structs, struct -> packClassFields(struct));
 
         /**
          * struct sizes are available at this point.
          */
-        for (Token struct : mTokens)
-            organizeMethodBodies(struct);
+        List<Token> methods = new ArrayList<>();
 
-        for (Token token : mTokens)
-            System.out.println(token.humanReadable());
-    }
+        for (Token struct : structs)
+            methods.addAll(methods(struct));
 
-    public static void organizeMethodBodies(Token tk)
-    {
-        for (Token token : tk.getChild(3))
+        if (lazy)
         {
-            if (token.equals(CONSTRUCTOR) || token.equals(METHOD_EMPTY_DECLARATION) || token.equals(METHOD_DECLARATION))
-            {
-                Token method = token;
+            mPending = Collections.newSetFromMap(new IdentityHashMap<>());
+            mPending.addAll(methods);
 
-                organizeMethodBody(method.get(BRACES), method);
-            }
+            return;
+        }
+
+        forEach(methods, method -> organizeMethodBody(method.get(BRACES), method));
+
+        if (cache != null)
+        {
+            Symbols symbols = new Symbols();
+
+            for (int i = 0; i < structs.size(); i ++)
+                cache.putParsedClass(keys.get(i), structs.get(i).copy(symbols), sizes.get(i));
         }
+
+        for (Token token : mTokens)
+            System.out.println(token.humanReadable());
     }
 
-    private static void organizeMethodBody(Token method, Token meta)
+    /**
+     * Writes everything parsing a class depends on to 'out': the type, text, position and
+     * modifiers of each of its tokens, and where its children start and end.
+     */
+    private static StringBuilder fingerprint(Token token, StringBuilder out)
     {
-        Queue<Token> out    = organize(new TokenStream(method.children), false);
-//        out                 = mul_recursive(new TokenStream(out), false);
-//        out                 = add_recursive(new TokenStream(out), false);
-//        out                 = recursiveDecompose(new TokenStream(out), false);
+        out.append(token.type.ordinal()).append(' ').append(token.file).append(':').append(token.line)
+                .append(':').append(token.offset).append(':').append(token.whitespace).append(' ')
+                .append(token.modifiers).append(' ').append(token.toString().length()).append(' ').append(token).append('(');
 
-        out = fixMath(out);
-        out = lastStep1(new TokenStream(out));
-        out = lastStep2(new TokenStream(out));
-        out = lastStep3(new TokenStream(out));
-//        out = optimize(new TokenStream(out));
+        for (Token child : token.getChildren())
+            fingerprint(child, out);
 
-        method.children.clear();
-        method.children.addAll(out);
+        return out.append(')');
     }
 
-    private static final Queue<Token> lastStep1(TokenStream in)
+    /**
+     * @return true if method bodies are only parsed when getMethodBody() asks for them.
+     */
+    public boolean isLazy()
     {
-        Queue<Token>    out     = new LinkedList<>();
-        Set<Modifier>   mod     = new LinkedHashSet<>();
+        return mLazy;
+    }
 
-        while (in.tokens.size() > 0)
-        {
-            while (in.peek() != null && in.peek().isModifier())
-                mod.add(in.poll().asModifier());
+    /**
+     * @return the body of a method or constructor, organized first if parsing is lazy and
+     * nothing asked for it before.
+     */
+    public synchronized Token getMethodBody(Token method)
+    {
+        Token body = method.get(BRACES);
 
-            if (in.matches(STATEMENT, SUBSCRIPT))
-            {
-                Token whatever = in.poll().clean();
-                Token subscript = in.poll();
+        if (mPending != null && mPending.remove(method))
+            organizeMethodBody(body, method);
 
-                if (whatever.children.size() > 1)
-                    errstr(whatever, "subscript modifier not allowed in this context.");
+        return body;
+    }
 
-                ((LinkedList<Token>) out).add(subscript.push_back(whatever.getChild(0)));
-            }
-            else
-                ((LinkedList<Token>) out).add(in.poll());
-        }
+    /**
+     * Classes and methods are parsed in parallel once there are at least this many.
+     */
+    public static final int PARALLEL = 16;
 
-        for (Token token : out)
+    /**
+     * Runs 'stage' on every token, in parallel if there are PARALLEL of them or more: on the
+     * pool of the caller when it is a -j worker, so a batch keeps to its jobs, and on the
+     * common pool otherwise. Each task writes where the caller's output is bound, and each
+     * token is only touched by its own task. Errors are thrown in the order of the tokens, so
+     * the first one is the one a serial run would have stopped at; the tasks after it are
+     * cancelled.
+     */
+    static void forEach(Collection<Token> tokens, Consumer<Token> stage)
+    {
+        if (tokens.size() < PARALLEL)
         {
-            Queue<Token> o = lastStep1(new TokenStream(token.children));
-            token.children.clear();
-            token.add(o);
+            for (Token token : tokens)
+                stage.accept(token);
+
+            return;
         }
 
-        return out;
-    }
+        ForkJoinPool            pool    = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+        List<ForkJoinTask<?>>   tasks   = new ArrayList<>(tokens.size());
 
-    private static final Queue<Token> lastStep2(TokenStream in)
-    {
-        Queue<Token>    out     = new LinkedList<>();
-        Set<Modifier>   mod     = new LinkedHashSet<>();
+        for (Token token : tokens)
+            tasks.add(pool.submit(Start.carryOutput(() -> stage.accept(token))));
 
-        while (in.tokens.size() > 0)
-        {
-            while (in.peek() != null && in.peek().isModifier())
-                mod.add(in.poll().asModifier());
+        try {
+            for (ForkJoinTask<?> task : tasks)
+                task.join();
+        } catch (RuntimeException | Error e) {
+            for (ForkJoinTask<?> task : tasks)
+                task.cancel(false);
 
-            if (in.matches(SUBSCRIPT, ASSIGNMENT))
-                ((LinkedList<Token>) out).add(in.poll().setType(SUBSCRIPT_ASSIGNMENT).add(in.poll().setType(EQUALS)));
-            else
-                ((LinkedList<Token>) out).add(in.poll());
+            throw e;
         }
+    }
 
-        for (Token token : out)
-        {
-            Queue<Token> o = lastStep2(new TokenStream(token.children));
-            token.children.clear();
-            token.add(o);
-        }
+    /**
+     * @return the methods and constructors of a class.
+     */
+    static List<Token> methods(Token tk)
+    {
+        List<Token> methods = new ArrayList<>();
 
-        return out;
+        for (Token token : tk.getChild(3))
+            if (token.equals(CONSTRUCTOR) || token.equals(METHOD_EMPTY_DECLARATION) || token.equals(METHOD_DECLARATION))
+                methods.add(token);
+
+        return methods;
     }
 
-    private static final Queue<Token> lastStep3(TokenStream in)
+    public static void organizeMethodBodies(Token tk)
     {
-        Queue<Token>    out     = new LinkedList<>();
-        Set<Modifier>   mod     = new LinkedHashSet<>();
+        for (Token method : methods(tk))
+            organizeMethodBody(method.get(BRACES), method);
+    }
 
-        while (in.tokens.size() > 0)
-        {
-            while (in.peek() != null && in.peek().isModifier())
-                mod.add(in.poll().asModifier());
+    private static void organizeMethodBody(Token method, Token meta)
+    {
+        Queue<Token> out    = organize(new TokenStream(method.children), false);
+//        out                 = mul_recursive(new TokenStream(out), false);
+//        out                 = add_recursive(new TokenStream(out), false);
+//        out                 = recursiveDecompose(new TokenStream(out), false);
 
-            if (in.matches(EMPTY_DECLARATION, ASSIGNMENT))
-                ((LinkedList<Token>) out).add(in.poll().add(in.poll().setType(EQUALS)).setType(FULL_DECLARATION));
-            else if (in.matches(ANY, ASSIGNMENT))
-                ((LinkedList<Token>) out).add(in.poll().add(in.poll().setType(EQUALS)).setType(ASSIGNMENT));
-            else
-                ((LinkedList<Token>) out).add(in.poll());
-        }
+        List<Token> body    = rewrite(out, null);
 
-        return out;
+        method.children.clear();
+        method.children.addAll(body);
     }
 
-    private static final Queue<Token> optimize(TokenStream in)
+    /**
+     * Rewrites a method body in one walk from the bottom up. The children of every token are
+     * done first; then the list itself is put in postfix order and, in the same list, every
+     * modifier is dropped and the rules are applied from left to right:
+     *
+     *  STATEMENT SUBSCRIPT             the subscript of what the statement holds
+     *  SUBSCRIPT ASSIGNMENT            SUBSCRIPT_ASSIGNMENT
+     *  EMPTY_DECLARATION ASSIGNMENT    FULL_DECLARATION (method level only)
+     *  ANY ASSIGNMENT                  ASSIGNMENT (method level only)
+     *
+     * @param parent the token that holds 'tokens', null for the method level.
+     */
+    static List<Token> rewrite(Collection<Token> tokens, Token parent)
     {
-        Queue<Token>    out     = new LinkedList<>();
-        Set<Modifier>   mod     = new LinkedHashSet<>();
+        for (Token token : tokens)
+        {
+            List<Token> children = rewrite(token.children, token);
+            token.children.clear();
+            token.add(children);
+        }
+
+        List<Token> out     = convertToPostfix(tokens.toArray(new Token[tokens.size()]));
+        int         size    = 0;
+        int         merged  = -1;
 
-        while (in.tokens.size() > 0)
+        if (parent != null)
+            for (int i = 0; i < out.size() && parent.line == -1; i ++)
+                parent.dataFrom(out.get(i));
+
+        for (int i = 0; i < out.size(); i ++)
         {
-            while (in.peek() != null && in.peek().isModifier())
-                mod.add(in.poll().asModifier());
+            Token token = out.get(i);
+            Token last  = size > 0 ? out.get(size - 1) : null;
+
+            if (token.isModifier())
+                continue;
+
+            if (token.equals(STATEMENT) && i + 1 < out.size() && out.get(i + 1).equals(SUBSCRIPT))
+                token = subscript(token, out.get(++ i));
 
-            if (in.matches(STATEMENT))
-                System.err.println("statement erased: " + in.poll());
+            if (last != null && last.equals(SUBSCRIPT) && token.equals(ASSIGNMENT))
+                last.setType(SUBSCRIPT_ASSIGNMENT).add(token.setType(EQUALS));
+            else if (parent == null && last != null && merged != size - 1 && token.equals(ASSIGNMENT))
+            {
+                last.setType(last.equals(EMPTY_DECLARATION) ? FULL_DECLARATION : ASSIGNMENT).add(token.setType(EQUALS));
+                merged = size - 1;
+            }
             else
-                ((LinkedList<Token>) out).add(in.poll());
+                out.set(size ++, token);
         }
 
-        return out;
+        return out.subList(0, size);
     }
 
-    private static final Queue<Token> fixMath(Collection<Token> tokens)
+    /**
+     * @return 'subscript', which now subscripts the one token inside 'statement'.
+     */
+    private static Token subscript(Token statement, Token subscript)
     {
+        statement.clean();
 
-        for (Token token : tokens)
-        {
-            Queue<Token> t = fixMath(token.children);
-            token.children.clear();
-            token.add(t);
-        }
+        if (statement.children.size() > 1)
+            errstr(statement, "subscript modifier not allowed in this context.");
 
-//        Queue<Token> out = ;
+        List<Token> children = subscript.push_back(statement.getChild(0)).children;
 
+        subscript.children = new ArrayList<>();
+        subscript.add(children);
 
-        return new LinkedList<>(convertToPostfix(tokens.toArray(new Token[tokens.size()])));
+        return subscript;
     }
 
     private static Queue<Token> dec_sub(TokenStream in, boolean once)
@@ -185,7 +287,7 @@ public class ParsedProgram
 
         int round = 0;
 
-        while (in.tokens.size() > 0)
+        while (!in.end())
         {
             if (round ++ > 0 && once)
                 return out;
@@ -240,7 +342,72 @@ public class ParsedProgram
         return in.matches(SUBTRACTION);
     }
 
-    private static Queue<Token> organize(TokenStream in, boolean once)
+    /**
+     * The statement rules of organize(), in the order they are tried.
+     */
+    private enum Rule
+    {
+        LINE_END, RETURN_VALUE, ADD_TO, MULTIPLY_BY, SUBTRACT_FROM, DIVIDE_BY, TRY_CATCH, INDEX,
+        LABEL, JUMP, TYPE_ALIAS, CLOSE, LITERAL, FOR_LOOP, NESTED_TEMPLATE, NESTED_CLASS,
+        NESTED_UNION, CAST_TO, PLUS_PLUS, MINUS_MINUS, SHIFT_LEFT_BY, SHIFT_LEFT, SHIFT_RIGHT_BY,
+        SHIFT_RIGHT, LOGICAL_OR, OR_WITH, XOR_WITH, AND_WITH, LOGICAL_AND, NEGATE, EQUAL_TO,
+        NOT_EQUAL_TO, ASSIGN, GROUP, BLOCK, NAMED, OTHER
+    }
+
+    private static final Patterns<Rule> ORGANIZE = new Patterns<>(Rule.class)
+            .add(Rule.LINE_END, END)
+            .add(Rule.RETURN_VALUE, RETURN)
+            .add(Rule.ADD_TO, ADDITION, EQUALS)
+            .add(Rule.MULTIPLY_BY, MULTIPLICATION, EQUALS)
+            .add(Rule.SUBTRACT_FROM, SUBTRACTION, EQUALS)
+            .add(Rule.DIVIDE_BY, SUBDIVISION, EQUALS)
+            .add(Rule.TRY_CATCH, TRY)
+            .add(Rule.INDEX, BRACKETS_OPEN)
+            .add(Rule.INDEX, BRACKETS)
+            .add(Rule.LABEL, IDENTIFIER, COLON)
+            .exclude(Rule.LABEL, IDENTIFIER, COLON, COLON)
+            .add(Rule.JUMP, GOTO, IDENTIFIER)
+            .add(Rule.TYPE_ALIAS, TYPEDEF, ANY_NOT_END, ANY_NOT_END)
+            .add(Rule.CLOSE, PARENTHESIS_CLOSED)
+            .add(Rule.CLOSE, BRACES_CLOSED)
+            .add(Rule.CLOSE, BRACKETS_CLOSED)
+            .add(Rule.LITERAL, NUMBER)
+            .add(Rule.FOR_LOOP, FOR)
+            .add(Rule.NESTED_TEMPLATE, TEMPLATE)
+            .add(Rule.NESTED_CLASS, CLASS)
+            .add(Rule.NESTED_UNION, UNION)
+            .add(Rule.CAST_TO, PARENTHESIS_OPEN, IDENTIFIER, PARENTHESIS_CLOSED)
+            .add(Rule.PLUS_PLUS, ADDITION, ADDITION)
+            .add(Rule.MINUS_MINUS, SUBTRACTION, SUBTRACTION)
+            .add(Rule.SHIFT_LEFT_BY, LESS_THAN, LESS_THAN, EQUALS)
+            .add(Rule.SHIFT_LEFT, LESS_THAN, LESS_THAN)
+            .add(Rule.SHIFT_RIGHT_BY, MORE_THAN, MORE_THAN, EQUALS)
+            .add(Rule.SHIFT_RIGHT, MORE_THAN, MORE_THAN)
+            .add(Rule.LOGICAL_OR, OR, OR)
+            .add(Rule.OR_WITH, OR, EQUALS)
+            .add(Rule.XOR_WITH, XOR, EQUALS)
+            .add(Rule.AND_WITH, AND, EQUALS)
+            .add(Rule.LOGICAL_AND, AND, AND)
+            .add(Rule.EQUAL_TO, EQUALS, EQUALS)
+            .add(Rule.NOT_EQUAL_TO, LOGICAL_NOT, EQUALS)
+            .add(Rule.ASSIGN, EQUALS)
+            .add(Rule.GROUP, PARENTHESIS_OPEN)
+            .add(Rule.BLOCK, BRACES_OPEN)
+            .add(Rule.NAMED, IDENTIFIER);
+
+    static
+    {
+        /**
+         * A math operator followed by a minus, as math_match() would find it.
+         */
+        for (Token.Type type : Token.Type.values())
+            if (InfixToPostFixEvalution.isOperator(type))
+                ORGANIZE.add(Rule.NEGATE, type, SUBTRACTION, ANY_NOT_END);
+
+        ORGANIZE.compile();
+    }
+
+    static Queue<Token> organize(TokenStream in, boolean once)
     {
         return organize(in, once, false);
     }
@@ -252,7 +419,7 @@ public class ParsedProgram
 
         int round = 0;
 
-        while (in.tokens.size() > 0)
+        while (!in.end())
         {
             if (round ++ == 1 && once)
                 return out;
@@ -264,509 +431,508 @@ public class ParsedProgram
 //                errstr(in.peek(), "modifiers not allowed inside method bodies");
 
             /**
-             * Standard field declaration (must be on one line).
+             * All the patterns are matched in one walk. A rule whose other conditions do not hold
+             * falls through to the next rule that matched.
              */
-
-            if (in.matches(END))
+            for (long rules = ORGANIZE.match(in); ; rules &= rules - 1)
             {
-                if (tilLignsEnd)
-                    return out;
-
-                in.poll();
-            }
-
-            else if (in.matches(RETURN))
-            {
-                Token t = in.poll();
-                t.add(organize(in, false, true));
-
-                ((LinkedList<Token>) out).add(t);
-            }
-
-            else if (in.matches(ADDITION, EQUALS))
-            {
-                Token a = in.poll();
-                in.poll();
-
-                ((LinkedList<Token>) out).add(new Token(PLUSEQUALS).dataFrom(a));
-            }
-
-            else if (in.matches(MULTIPLICATION, EQUALS))
-            {
-                Token a = in.poll();
-                in.poll();
-
-                ((LinkedList<Token>) out).add(new Token(MULTIPLYEQUALS).dataFrom(a));
-            }
-
-            else if (in.matches(SUBTRACTION, EQUALS))
-            {
-                Token a = in.poll();
-                in.poll();
-
-                ((LinkedList<Token>) out).add(new Token(MINUSEQUALS).dataFrom(a));
-            }
-
-            else if (in.matches(SUBDIVISION, EQUALS))
-            {
-                Token a = in.poll();
-                in.poll();
-
-                ((LinkedList<Token>) out).add(new Token(DIVIDEEQUALS).dataFrom(a));
-            }
-
-            else if (in.matches(TRY))
-            {
-                ws(in);
-
-                Token trie = in.poll();
-
-                if (in.matches(BRACES_OPEN))
+                switch (ORGANIZE.first(rules, Rule.OTHER))
                 {
-                    Token body = closeBrace(in.tokens);
-
-                    Queue<Token> q = organize(new TokenStream(body.children), false);
-
-                    body.children.clear();
-                    body.add(q);
-
-                    trie.add(body);
-                } else if (in.matches(BRACES))
-                {
-                    Token body = in.poll();
-
-                    Queue<Token> q = organize(new TokenStream(body.children), false);
+                    case LINE_END:
+                        if (tilLignsEnd)
+                            return out;
 
-                    body.children.clear();
-                    body.add(q);
-
-                    trie.add(body);
-                }
-                else
-                    errstr(trie, "try body missing");
-
-                ws(in);
-
-                if (!in.matches(CATCH))
-                    errstr(trie, "try 'catch' is missing");
-
-                Token catche = in.poll();
-
-                ws(in);
+                        in.poll();
+                        break;
 
-                if (in.matches(PARENTHESIS_OPEN))
-                {
-                    Token body = closeParenthesis(in.tokens);
-
-                    Queue<Token> q = organize(new TokenStream(body.children), false);
-
-                    body.children.clear();
-                    body.add(q);
-
-                    catche.add(body);
-                } else if (in.matches(PARENTHESIS))
-                {
-                    Token body = in.poll();
-
-                    Queue<Token> q = organize(new TokenStream(body.children), false);
-
-                    body.children.clear();
-                    body.add(q);
+                    case RETURN_VALUE:
+                    {
+                        Token t = in.poll();
+                        t.add(organize(in, false, true));
 
-                    catche.add(body);
-                }
-                else
-                    errstr(catche, "catch clause missing");
+                        ((LinkedList<Token>) out).add(t);
+                        break;
+                    }
 
-                ws(in);
+                    case ADD_TO:
+                    {
+                        Token a = in.poll();
+                        in.poll();
 
-                if (in.matches(BRACES_OPEN))
-                {
-                    Token body = closeBrace(in.tokens);
+                        ((LinkedList<Token>) out).add(new Token(PLUSEQUALS).dataFrom(a));
+                        break;
+                    }
 
-                    Queue<Token> q = organize(new TokenStream(body.children), false);
+                    case MULTIPLY_BY:
+                    {
+                        Token a = in.poll();
+                        in.poll();
 
-                    body.children.clear();
-                    body.add(q);
+                        ((LinkedList<Token>) out).add(new Token(MULTIPLYEQUALS).dataFrom(a));
+                        break;
+                    }
 
-                    catche.add(body);
-                } else if (in.matches(BRACES))
-                    catche.add(in.poll());
-                else
-                    errstr(catche, "catch body missing");
+                    case SUBTRACT_FROM:
+                    {
+                        Token a = in.poll();
+                        in.poll();
 
-                ((LinkedList<Token>) out).add(new Token(TRYCATCH).add(trie).add(catche));
-            }
+                        ((LinkedList<Token>) out).add(new Token(MINUSEQUALS).dataFrom(a));
+                        break;
+                    }
 
-            else if (in.matches(BRACKETS_OPEN) || in.matches(BRACKETS))
-            {
-                Token subscript = new Token(SUBSCRIPT);
+                    case DIVIDE_BY:
+                    {
+                        Token a = in.poll();
+                        in.poll();
 
-//                subscript.add(in.poll());
+                        ((LinkedList<Token>) out).add(new Token(DIVIDEEQUALS).dataFrom(a));
+                        break;
+                    }
 
-                Token brackets = null;
+                    case TRY_CATCH:
+                    {
+                        ws(in);
 
-                while (in.matches(BRACKETS_OPEN) || in.matches(BRACKETS))
-                {
-                    if (in.peek().equals(BRACKETS_OPEN))
-                        brackets = closeBrackets(in.tokens);
-                    else if (in.peek().equals(BRACKETS))
-                        brackets = in.poll();
+                        Token trie = in.poll();
 
-                    subscript.add(brackets);
-                }
+                        if (in.matches(BRACES_OPEN))
+                        {
+                            Token body = closeBrace(in);
 
-                Queue<Token> q = organize(new TokenStream(brackets.children), false);
+                            Queue<Token> q = organize(new TokenStream(body.children), false);
 
-                brackets.children.clear();
-                brackets.add(q);
+                            body.children.clear();
+                            body.add(q);
 
-                ((LinkedList<Token>) out).add(subscript);
-            }
+                            trie.add(body);
+                        } else if (in.matches(BRACES))
+                        {
+                            Token body = in.poll();
 
-            else if (in.matches(IDENTIFIER, COLON) && !in.matches(IDENTIFIER, COLON, COLON))
-            {
-                Token mark = new Token(MARK);
+                            Queue<Token> q = organize(new TokenStream(body.children), false);
 
-                ((LinkedList<Token>) out).add(mark.setData(in.poll().data));
-                in.poll();
-            }
+                            body.children.clear();
+                            body.add(q);
 
-            else if (in.matches(GOTO, IDENTIFIER))
-                ((LinkedList<Token>) out).add(in.poll().setData(in.poll().data));
+                            trie.add(body);
+                        }
+                        else
+                            errstr(trie, "try body missing");
 
-            else if (in.matches(TYPEDEF, ANY_NOT_END, ANY_NOT_END))
-            {
-                Token typedef   = in.poll();
-                if (in.peek().data.equals("unsigned"))
-                    mod.add(in.poll().asModifier());
+                        ws(in);
 
-                Token type      = new Token(IDENTIFIER).setModifiers(mod);
+                        if (!in.matches(CATCH))
+                            errstr(trie, "try 'catch' is missing");
 
-                while (in.peek() != null && !in.peek().equals(END))
-                    type.add(in.poll());
+                        Token catche = in.poll();
 
-                Token name      = type.children.get(type.children.size() - 1);
-                type.children.remove(type.children.size() - 1);
+                        ws(in);
 
-                ((LinkedList<Token>) out).add(typedef.add(type.setType(TYPENAME)).add(name.setType(NAME)));
-            }
+                        if (in.matches(PARENTHESIS_OPEN))
+                        {
+                            Token body = closeParenthesis(in);
 
-            else if (in.matches(PARENTHESIS_CLOSED) || in.matches(BRACES_CLOSED) || in.matches(BRACKETS_CLOSED))
-            {
-                ((LinkedList<Token>) out).add(in.poll());
-                if (tilLignsEnd)
-                    return out;
-            }
+                            Queue<Token> q = organize(new TokenStream(body.children), false);
 
-            else if (in.matches(ADDITION, EQUALS))
-            {
-                in.poll();
-                in.poll();
+                            body.children.clear();
+                            body.add(q);
 
-                ((LinkedList<Token>) out).add(new Token(ASSIGNMENT).add(new Token(PLUSEQUALS).add(organize(in, true))));
-            }
+                            catche.add(body);
+                        } else if (in.matches(PARENTHESIS))
+                        {
+                            Token body = in.poll();
 
-            else if (in.matches(SUBTRACTION, EQUALS))
-            {
-                in.poll();
-                in.poll();
+                            Queue<Token> q = organize(new TokenStream(body.children), false);
 
-                ((LinkedList<Token>) out).add(new Token(ASSIGNMENT).add(new Token(MINUSEQUALS).add(organize(in, true))));
-            }
+                            body.children.clear();
+                            body.add(q);
 
-            else if (in.matches(NUMBER))
-            {
-                Token t = null;
-                String toke = (t = in.poll()).data;
-                while (in.matches(NUMBER) || in.matches(PROCEDURAL_ACCESS))
-                    toke += in.poll().data;
+                            catche.add(body);
+                        }
+                        else
+                            errstr(catche, "catch clause missing");
 
-                if (toke.contains("."))
-                    ((LinkedList<Token>) out).add(new Token(DECIMAL).setData(toke).dataFrom(t));
-                else
-                    ((LinkedList<Token>) out).add(new Token(NUMBER).setData(toke).dataFrom(t));
-            }
+                        ws(in);
 
-            else if (in.matches(FOR))
-            {
-                Token floop = in.poll();
+                        if (in.matches(BRACES_OPEN))
+                        {
+                            Token body = closeBrace(in);
 
-                ws(in);
-                if (!in.matches(PARENTHESIS_OPEN))
-                    errstr(floop, "for loop syntax incorrect (must be followed by parenthesis)");
+                            Queue<Token> q = organize(new TokenStream(body.children), false);
 
-                Token parenthesis = closeParenthesis(in.tokens);
+                            body.children.clear();
+                            body.add(q);
 
-                Queue<Token> t = organize(new TokenStream(parenthesis.children), false);
+                            catche.add(body);
+                        } else if (in.matches(BRACES))
+                            catche.add(in.poll());
+                        else
+                            errstr(catche, "catch body missing");
 
-                parenthesis.children.clear();
-                parenthesis.add(t);
+                        ((LinkedList<Token>) out).add(new Token(TRYCATCH).add(trie).add(catche));
+                        break;
+                    }
 
-                ws(in);
-                if (!in.matches(BRACES_OPEN) && !in.matches(BRACES))
-                    errstr(floop, "for loop syntax incorrect (must be followed by braces)");
+                    case INDEX:
+                    {
+                        Token subscript = new Token(SUBSCRIPT);
 
-                Token body        = in.matches(BRACES_OPEN) ? closeBrace(in.tokens) : in.poll();
+//                        subscript.add(in.poll());
 
-                t = organize(new TokenStream(body.children), false);
-                body.children.clear();
-                body.add(t);
+                        Token brackets = null;
 
-                ((LinkedList<Token>) out).add(floop.add(parenthesis).add(body));
-            }
+                        while (in.matches(BRACKETS_OPEN) || in.matches(BRACKETS))
+                        {
+                            if (in.peek().equals(BRACKETS_OPEN))
+                                brackets = closeBrackets(in);
+                            else if (in.peek().equals(BRACKETS))
+                                brackets = in.poll();
 
-            else if (in.matches(TEMPLATE))
-                errstr(in, "templates not allowed inside method bodies");
+                            subscript.add(brackets);
+                        }
 
-            else if (in.matches(CLASS))
-                errstr(in, "class declarations not allowed inside method bodies");
+                        Queue<Token> q = organize(new TokenStream(brackets.children), false);
 
-            else if (in.matches(UNION))
-                errstr(in, "union declarations not allowed inside method bodies");
+                        brackets.children.clear();
+                        brackets.add(q);
 
-            else if (in.matches(PARENTHESIS_OPEN, IDENTIFIER, PARENTHESIS_CLOSED))
-            {
-                in.poll();
-                ((LinkedList<Token>) out).add(new Token(CAST).add(in.poll()));
-                in.poll();
+                        ((LinkedList<Token>) out).add(subscript);
+                        break;
+                    }
 
-                if (in.peek() == null)
-                    errstr(((LinkedList<Token>) out).peekLast(), "casting at the end of a statement");
+                    case LABEL:
+                    {
+                        Token mark = new Token(MARK);
 
-                if (in.peek().equals(END))
-                    errstr(((LinkedList<Token>) out).peekLast(), "casting at the end of a statement");
+                        ((LinkedList<Token>) out).add(mark.setData(in.poll().toString()));
+                        in.poll();
+                        break;
+                    }
 
-                ((LinkedList<Token>) out).peekLast().add(organize(in, true, true));
-            }
+                    case JUMP:
+                        ((LinkedList<Token>) out).add(in.poll().setData(in.poll().toString()));
+                        break;
 
-            else if (in.matches(ADDITION, ADDITION))
-            {
-                in.poll();
-                in.poll();
-                ((LinkedList<Token>) out).add(new Token(INCREMENT));
-            }
+                    case TYPE_ALIAS:
+                    {
+                        Token typedef   = in.poll();
+                        if (in.peek().toString().equals("unsigned"))
+                            mod.add(in.poll().asModifier());
 
-            else if (in.matches(SUBTRACTION, SUBTRACTION))
-            {
-                in.poll();
-                in.poll();
-                ((LinkedList<Token>) out).add(new Token(DECREMENT));
-            }
+                        Token type      = new Token(IDENTIFIER).setModifiers(mod);
 
-            else if (in.matches(LESS_THAN, LESS_THAN, EQUALS))
-            {
-                in.poll();
-                in.poll();
-                ((LinkedList<Token>) out).add(new Token(LEFT_SHIFTEQUALS));
-            }
+                        while (in.peek() != null && !in.peek().equals(END))
+                            type.add(in.poll());
 
-            else if (in.matches(LESS_THAN, LESS_THAN))
-            {
-                in.poll();
-                in.poll();
-                ((LinkedList<Token>) out).add(new Token(LEFT_SHIFT));
-            }
+                        Token name      = type.children.get(type.children.size() - 1);
+                        type.children.remove(type.children.size() - 1);
 
-            else if (in.matches(MORE_THAN, MORE_THAN, EQUALS))
-            {
-                in.poll();
-                in.poll();
-                ((LinkedList<Token>) out).add(new Token(RIGHT_SHIFTEQUALS));
-            }
+                        ((LinkedList<Token>) out).add(typedef.add(type.setType(TYPENAME)).add(name.setType(NAME)));
+                        break;
+                    }
 
-            else if (in.matches(MORE_THAN, MORE_THAN))
-            {
-                in.poll();
-                in.poll();
-                ((LinkedList<Token>) out).add(new Token(RIGHT_SHIFT));
-            }
+                    case CLOSE:
+                        ((LinkedList<Token>) out).add(in.poll());
+                        if (tilLignsEnd)
+                            return out;
+                        break;
 
-            else if (in.matches(OR, OR))
-            {
-                in.poll();
-                in.poll();
-                ((LinkedList<Token>) out).add(new Token(LOR));
-            }
+                    case LITERAL:
+                    {
+                        Token t = null;
+                        String toke = (t = in.poll()).toString();
+                        Number value = t.value;
+                        while (in.matches(NUMBER) || in.matches(PROCEDURAL_ACCESS))
+                            value = Token.literal(toke += in.poll().toString());
 
-            else if (in.matches(OR, EQUALS))
-            {
-                in.poll();
-                in.poll();
-                ((LinkedList<Token>) out).add(new Token(OR_EQUALS));
-            }
+                        Token number = new Token(toke.contains(".") || value instanceof Float || value instanceof Double ? DECIMAL : NUMBER).setData(toke).dataFrom(t);
+                        number.value = value;
 
-            else if (in.matches(XOR, EQUALS))
-            {
-                in.poll();
-                in.poll();
-                ((LinkedList<Token>) out).add(new Token(XOR_EQUALS));
-            }
+                        ((LinkedList<Token>) out).add(number);
+                        break;
+                    }
 
-            else if (in.matches(AND, EQUALS))
-            {
-                in.poll();
-                in.poll();
-                ((LinkedList<Token>) out).add(new Token(AND_EQUALS));
-            }
+                    case FOR_LOOP:
+                    {
+                        Token floop = in.poll();
 
-            else if (out.size() == 0 && in.matches(AND, AND))
-            {
-                in.poll();
-                in.poll();
-                ((LinkedList<Token>) out).add(new Token(LAND));
-            }
+                        ws(in);
+                        if (!in.matches(PARENTHESIS_OPEN))
+                            errstr(floop, "for loop syntax incorrect (must be followed by parenthesis)");
 
-            else if (math_match(in) && in.matches(ANY, SUBTRACTION, ANY_NOT_END))
-            {
-                ((LinkedList<Token>) out).add(in.poll());
-                in.poll();
-                ((LinkedList<Token>) out).add(new Token(UNARY_MINUS).add(organize(in, true)));
-            }
+                        Token parenthesis = closeParenthesis(in);
 
-            else if (in.matches(EQUALS, EQUALS))
-            {
-                in.poll();
-                in.poll();
+                        Queue<Token> t = organize(new TokenStream(parenthesis.children), false);
 
-                ((LinkedList<Token>) out).add(new Token(ASSERT));
-            }
+                        parenthesis.children.clear();
+                        parenthesis.add(t);
 
-            else if (in.matches(LOGICAL_NOT, EQUALS))
-            {
-                in.poll();
-                in.poll();
+                        ws(in);
+                        if (!in.matches(BRACES_OPEN) && !in.matches(BRACES))
+                            errstr(floop, "for loop syntax incorrect (must be followed by braces)");
 
-                ((LinkedList<Token>) out).add(new Token(LOGICAL_NOTEQUALS));
-            }
+                        Token body        = in.matches(BRACES_OPEN) ? closeBrace(in) : in.poll();
 
-            else if (in.matches(EQUALS))
-            {
-                Token assignment = new Token(ASSIGNMENT);
+                        t = organize(new TokenStream(body.children), false);
+                        body.children.clear();
+                        body.add(t);
 
-                in.poll();
+                        ((LinkedList<Token>) out).add(floop.add(parenthesis).add(body));
+                        break;
+                    }
 
-                ((LinkedList<Token>) out).add(assignment.add(organize(in, false, true)));
-            }
+                    case NESTED_TEMPLATE:
+                        errstr(in, "templates not allowed inside method bodies");
+                        break;
+
+                    case NESTED_CLASS:
+                        errstr(in, "class declarations not allowed inside method bodies");
+                        break;
+
+                    case NESTED_UNION:
+                        errstr(in, "union declarations not allowed inside method bodies");
+                        break;
+
+                    case CAST_TO:
+                        in.poll();
+                        ((LinkedList<Token>) out).add(new Token(CAST).add(in.poll()));
+                        in.poll();
+
+                        if (in.peek() == null)
+                            errstr(((LinkedList<Token>) out).peekLast(), "casting at the end of a statement");
+
+                        if (in.peek().equals(END))
+                            errstr(((LinkedList<Token>) out).peekLast(), "casting at the end of a statement");
+
+                        ((LinkedList<Token>) out).peekLast().add(organize(in, true, true));
+                        break;
+
+                    case PLUS_PLUS:
+                        in.poll();
+                        in.poll();
+                        ((LinkedList<Token>) out).add(new Token(INCREMENT));
+                        break;
+
+                    case MINUS_MINUS:
+                        in.poll();
+                        in.poll();
+                        ((LinkedList<Token>) out).add(new Token(DECREMENT));
+                        break;
+
+                    case SHIFT_LEFT_BY:
+                        in.poll();
+                        in.poll();
+                        ((LinkedList<Token>) out).add(new Token(LEFT_SHIFTEQUALS));
+                        break;
+
+                    case SHIFT_LEFT:
+                        in.poll();
+                        in.poll();
+                        ((LinkedList<Token>) out).add(new Token(LEFT_SHIFT));
+                        break;
+
+                    case SHIFT_RIGHT_BY:
+                        in.poll();
+                        in.poll();
+                        ((LinkedList<Token>) out).add(new Token(RIGHT_SHIFTEQUALS));
+                        break;
+
+                    case SHIFT_RIGHT:
+                        in.poll();
+                        in.poll();
+                        ((LinkedList<Token>) out).add(new Token(RIGHT_SHIFT));
+                        break;
+
+                    case LOGICAL_OR:
+                        in.poll();
+                        in.poll();
+                        ((LinkedList<Token>) out).add(new Token(LOR));
+                        break;
+
+                    case OR_WITH:
+                        in.poll();
+                        in.poll();
+                        ((LinkedList<Token>) out).add(new Token(OR_EQUALS));
+                        break;
+
+                    case XOR_WITH:
+                        in.poll();
+                        in.poll();
+                        ((LinkedList<Token>) out).add(new Token(XOR_EQUALS));
+                        break;
+
+                    case AND_WITH:
+                        in.poll();
+                        in.poll();
+                        ((LinkedList<Token>) out).add(new Token(AND_EQUALS));
+                        break;
+
+                    case LOGICAL_AND:
+                        if (out.size() != 0)
+                            continue;
+
+                        in.poll();
+                        in.poll();
+                        ((LinkedList<Token>) out).add(new Token(LAND));
+                        break;
+
+                    case NEGATE:
+                        ((LinkedList<Token>) out).add(in.poll());
+                        in.poll();
+                        ((LinkedList<Token>) out).add(new Token(UNARY_MINUS).add(organize(in, true)));
+                        break;
+
+                    case EQUAL_TO:
+                        in.poll();
+                        in.poll();
+
+                        ((LinkedList<Token>) out).add(new Token(ASSERT));
+                        break;
+
+                    case NOT_EQUAL_TO:
+                        in.poll();
+                        in.poll();
+
+                        ((LinkedList<Token>) out).add(new Token(LOGICAL_NOTEQUALS));
+                        break;
+
+                    case ASSIGN:
+                    {
+                        Token assignment = new Token(ASSIGNMENT);
 
-            else if (in.matches(PARENTHESIS_OPEN))
-            {
-                Token token = closeParenthesis(in.tokens);
+                        in.poll();
 
-                debug = true;
-                Queue<Token> tokes = organize(new TokenStream(token.children), false);
-                debug = false;
-                token.children.clear();
-                token.add(tokes);
+                        ((LinkedList<Token>) out).add(assignment.add(organize(in, false, true)));
+                        break;
+                    }
 
-                ((LinkedList<Token>) out).add(token);
-            }
+                    case GROUP:
+                    {
+                        Token token = closeParenthesis(in);
 
-            else if (in.matches(BRACES_OPEN))
-            {
-                Token token = closeBrace(in.tokens);
+                        Queue<Token> tokes = organize(new TokenStream(token.children), false);
+                        token.children.clear();
+                        token.add(tokes);
 
-                Queue<Token> tokes = organize(new TokenStream(token.children), false);
-                token.children.clear();
-                token.add(tokes);
-                ((LinkedList<Token>) out).add(token);
-            }
+                        ((LinkedList<Token>) out).add(token);
+                        break;
+                    }
 
-            else if (in.matches(IDENTIFIER))
-            {
-                Token statement = new Token(STATEMENT).setModifiers(mod);
-                Token typenamet = in.poll();
-                Token generictt = new Token(UNDEFINED);
+                    case BLOCK:
+                    {
+                        Token token = closeBrace(in);
 
-                /**
-                 * A template exists
-                 */
-                if (in.matches(LESS_THAN))
-                {
-                    generictt = new Token(GENERIC_SPEC);
-                    in.poll();
+                        Queue<Token> tokes = organize(new TokenStream(token.children), false);
+                        token.children.clear();
+                        token.add(tokes);
+                        ((LinkedList<Token>) out).add(token);
+                        break;
+                    }
 
-                    while (in.matches(IDENTIFIER))
+                    case NAMED:
                     {
-                        Token generic = in.poll().setType(NAME);
-                        generictt.add(generic);
-                        if (in.matches(COMMA))
-                            in.poll();
-                        else if (in.matches(MORE_THAN))
+                        Token statement = new Token(STATEMENT).setModifiers(mod);
+                        Token typenamet = in.poll();
+                        Token generictt = new Token(UNDEFINED);
+
+                        /**
+                         * A template exists
+                         */
+                        if (in.matches(LESS_THAN))
                         {
+                            generictt = new Token(GENERIC_SPEC);
                             in.poll();
-                            break;
-                        } else
-                            errstr(in, "invalid generic specifier (never closed)");
-                    }
-                }
-
-                /**
-                 * This is a declaration of <?></?></?>
-                 */
-                if (in.matches(IDENTIFIER))
-                {
-                    typenamet.setType(VARTYPE);
-                    Token name = in.poll().setType(NAME);
 
-                    /**
-                     * Method declaration
-                     */
-                    if (in.matches(PARENTHESIS_OPEN))
-                        errstr(typenamet, "function declarations not allowed inside function bodies");
-                    /**
-                     * Field declaration
-                     */
-                    else if (in.matches(ANY) || in.end())
-                        ((LinkedList<Token>) out).add(statement.setType(EMPTY_DECLARATION).add(typenamet.setModifiers(mod).modErrors()).add(generictt).add(name));
-                }
+                            while (in.matches(IDENTIFIER))
+                            {
+                                Token generic = in.poll().setType(NAME);
+                                generictt.add(generic);
+                                if (in.matches(COMMA))
+                                    in.poll();
+                                else if (in.matches(MORE_THAN))
+                                {
+                                    in.poll();
+                                    break;
+                                } else
+                                    errstr(in, "invalid generic specifier (never closed)");
+                            }
+                        }
+
+                        /**
+                         * This is a declaration of <?></?></?>
+                         */
+                        if (in.matches(IDENTIFIER))
+                        {
+                            typenamet.setType(VARTYPE);
+                            Token name = in.poll().setType(NAME);
+
+                            /**
+                             * Method declaration
+                             */
+                            if (in.matches(PARENTHESIS_OPEN))
+                                errstr(typenamet, "function declarations not allowed inside function bodies");
+                            /**
+                             * Field declaration
+                             */
+                            else if (in.matches(ANY) || in.end())
+                                ((LinkedList<Token>) out).add(statement.setType(EMPTY_DECLARATION).add(typenamet.setModifiers(mod).modErrors()).add(generictt).add(name));
+                        }
+
+                        /**
+                         * This is a function call.
+                         */
+                        else if (in.matches(PARENTHESIS_OPEN))
+                        {
+                            Token parenthesis = closeParenthesis(in);
+                            Queue<Token> o = organize(new TokenStream(parenthesis.children), false);
+                            parenthesis.children.clear();
+                            parenthesis.add(o);
 
-                /**
-                 * This is a function call.
-                 */
-                else if (in.matches(PARENTHESIS_OPEN))
-                {
-                    Token parenthesis = closeParenthesis(in.tokens);
-                    Queue<Token> o = organize(new TokenStream(parenthesis.children), false);
-                    parenthesis.children.clear();
-                    parenthesis.add(o);
+                            Token body = new Token(UNDEFINED);
 
-                    Token body = new Token(UNDEFINED);
+                            if (in.matches(BRACES_OPEN))
+                                body = closeBrace(in);
+                            else if (in.matches(BRACES))
+                                body = in.poll();
 
-                    if (in.matches(BRACES_OPEN))
-                        body = closeBrace(in.tokens);
-                    else if (in.matches(BRACES))
-                        body = in.poll();
+                            if (body.getType().equals(UNDEFINED))
+                                statement.setType(METHOD_EMPTY_DECLARATION);
+                            else
+                                statement.setType(METHOD_DECLARATION);
 
-                    if (body.getType().equals(UNDEFINED))
-                        statement.setType(METHOD_EMPTY_DECLARATION);
-                    else
-                        statement.setType(METHOD_DECLARATION);
+                            if (!body.getType().equals(UNDEFINED))
+                                errstr(typenamet, "constructors are not allowed in functions");
 
-                    if (!body.getType().equals(UNDEFINED))
-                        errstr(typenamet, "constructors are not allowed in functions");
+                            Token name = typenamet.setType(NAME);
 
-                    Token name = typenamet.setType(NAME);
+                            ((LinkedList<Token>) out).add(checkAccess(in, statement.setType(METHOD_CALL).add(name, parenthesis)));
+                        }
+                        else
+                            ((LinkedList<Token>) out).add(checkAccess(in, statement.add(typenamet, generictt)));
+                        break;
+                    }
 
-                    ((LinkedList<Token>) out).add(checkAccess(in, statement.setType(METHOD_CALL).add(name, parenthesis)));
+                    default:
+                        if (in.peek() != null)
+                            ((LinkedList<Token>) out).add(in.poll());
+                        else
+                            errstr(in, "errors in stream");
+                        break;
                 }
-                else
-                    ((LinkedList<Token>) out).add(checkAccess(in, statement.add(typenamet, generictt)));
+
+                break;
             }
-            else if (in.peek() != null)
-                ((LinkedList<Token>) out).add(in.poll());
-            else
-                errstr(in, "errors in stream");
         }
 
         return out;
     }
 
-    private static Token closeBrace(Queue<Token> in)
+    private static Token closeBrace(TokenStream in)
     {
         Token token = in.poll().setType(BRACES);
 
-        while (in.size() > 0)
+        while (!in.end())
         {
             if (in.peek().getType().equals(Token.Type.BRACES_CLOSED))
             {
@@ -781,11 +947,11 @@ public class ParsedProgram
         return token;
     }
 
-    private static Token closeParenthesis(Queue<Token> in)
+    private static Token closeParenthesis(TokenStream in)
     {
         Token token = in.poll().setType(PARENTHESIS);
 
-        while (in.size() > 0)
+        while (!in.end())
         {
             if (in.peek().getType().equals(Token.Type.PARENTHESIS_CLOSED))
             {
@@ -800,11 +966,11 @@ public class ParsedProgram
         return token;
     }
 
-    private static Token closeBrackets(Queue<Token> in)
+    private static Token closeBrackets(TokenStream in)
     {
         Token token = in.poll().setType(BRACKETS);
 
-        while (in.size() > 0)
+        while (!in.end())
         {
             if (in.peek().getType().equals(Token.Type.BRACKETS_CLOSED))
             {
@@ -826,7 +992,7 @@ public class ParsedProgram
         Set<Modifier>   mod     = new LinkedHashSet<>();
         Stack<Token>    tlt     = new Stack<>();
 
-        while (in.tokens.size() > 0)
+        while (!in.end())
         {
             while (in.peek() != null && in.peek().isModifier())
                 mod.add(in.poll().asModifier());
@@ -936,7 +1102,7 @@ public class ParsedProgram
                      */
                     if (in.matches(PARENTHESIS_OPEN))
                     {
-                        Token parenthesis = closeParenthesis(in.tokens);
+                        Token parenthesis = closeParenthesis(in);
                         Token body        = new Token(UNDEFINED);
 
                         Queue<Token> tokens = organize(new TokenStream(parenthesis.getChildren()), false);
@@ -946,7 +1112,7 @@ public class ParsedProgram
                         ws(in);
 
                         if (in.matches(BRACES_OPEN))
-                            body = closeBrace(in.tokens);
+                            body = closeBrace(in);
                         else if (in.matches(BRACES))
                             body = in.poll();
 
@@ -977,7 +1143,7 @@ public class ParsedProgram
                  */
                 else if (in.matches(PARENTHESIS_OPEN))
                 {
-                    boolean isConstructor = struct.get(NAME).data.equals(typenamet.data);
+                    boolean isConstructor = struct.get(NAME).toString().equals(typenamet.toString());
 
                     if (!isConstructor)
                     {
@@ -992,13 +1158,13 @@ public class ParsedProgram
                         if (mod.size() > 0)
                             errstr(in, "constructors cannot also be pointers");
 
-                        Token parenthesis = closeParenthesis(in.tokens);
+                        Token parenthesis = closeParenthesis(in);
                         Token body = new Token(UNDEFINED);
 
                         ws(in);
 
                         if (in.matches(BRACES_OPEN))
-                            body = closeBrace(in.tokens);
+                            body = closeBrace(in);
                         else if (in.matches(BRACES))
                             body = in.poll();
 
@@ -1029,13 +1195,13 @@ public class ParsedProgram
         return out;
     }
 
-    public static Queue<Token> packClasses(TokenStream inout)
+    public static Queue<Token> packClasses(TokenStream inout, Set<CompilerFlag> flags)
     {
         Queue<Token>    out     = new LinkedList<>();
         Set<Modifier>   mod     = new LinkedHashSet<>();
         Stack<Token>    tlt     = new Stack<>();
 
-        while (inout.tokens.size() > 0)
+        while (!inout.end())
         {
             if (inout.peek().isModifier())
                 mod.add(inout.poll().asModifier());
@@ -1049,7 +1215,7 @@ public class ParsedProgram
             {
                 inout.poll();
                 inout.poll();
-                mCompilerFlags.add(CompilerFlag.valueOf(inout.poll().toString()));
+                flags.add(CompilerFlag.valueOf(inout.poll().toString()));
                 inout.poll();
             }
 
@@ -1151,7 +1317,7 @@ public class ParsedProgram
 
                 if (inout.matches(BRACES_OPEN))
                 {
-                    body   = closeBrace(inout.tokens);
+                    body   = closeBrace(inout);
 
                     ws(inout);
 
@@ -1185,16 +1351,14 @@ public class ParsedProgram
         for (int i = 0; i < 5; i ++)
             if (inout.peek() != null && !inout.peek().equals(END))
                 tokens += " " + inout.poll();//.smartString();
-        System.err.println("no match for tokens (" + err + "): " + tokens + "'");
-        System.err.println("infostr: " + token.infoString());
-        System.exit(-1);
+        throw new CompileError("no match for tokens (" + err + "): " + tokens + "'"
+                + "\ninfostr: " + token.infoString(), -1);
     }
 
     public static void errstr(Token inout, String err)
     {
-        System.err.println("err at token: " + inout + " (" + err + ")");
-        System.err.println("infostr: " + inout.infoString());
-        System.exit(-1);
+        throw new CompileError("err at token: " + inout + " (" + err + ")"
+                + "\ninfostr: " + inout.infoString(), -1);
     }
 
     private static void ws(TokenStream inout)
@@ -1203,31 +1367,6 @@ public class ParsedProgram
             inout.poll();
     }
 
-    /**
-     * This function will arrange the tokens in classes.
-     */
-    public static Queue<Token> normalize(TokenStream inout)
-    {
-        return normalize(inout, false);
-    }
-
-    public static void normalize(Token token)
-    {
-        Set<Token> old = new LinkedHashSet<>(token.children);
-        token.children.clear();
-        token.children.addAll(normalize(new TokenStream(old)));
-    }
-
-    /**
-     * A non recursive linear-prediction parser.
-     */
-    public static Queue<Token> normalize(TokenStream inout, boolean onlyOnce)
-    {
-        return normalize(inout, onlyOnce, false);
-    }
-
-    static boolean debug = false;
-
     private static Token checkAccess(TokenStream inout, Token in)
     {
         if (inout.matches(PROCEDURAL_ACCESS))
@@ -1254,303 +1393,14 @@ public class ParsedProgram
         else return in;
     }
 
-    public static Queue<Token> normalize(TokenStream inout, boolean onlyOnce, boolean nextEndLine)
+    public Queue<Token> getTokens()
     {
-        Queue<Token>    out     = new LinkedList<>();
-        Set<Modifier>   mod     = new LinkedHashSet<>();
-
-        int             numRnd  = 0;
-
-        while (inout.tokens.size() > 0)
-        {
-            if (numRnd ++ > 0 && onlyOnce)
-                break;
-
-            if (debug)
-                for (int i = 0; i < Math.min(5, inout.tokens.size()); i ++)
-                    System.err.println(inout.tokens.get(i).smartString());
-
-            if (inout.peek().isModifier())
-                mod.add(inout.poll().asModifier());
-
-            /**
-             * Initialization
-             */
-            else if (inout.matches(EQUALS))
-            {
-                try{
-                    Token last = ((LinkedList<Token>) out).removeLast();
-                    inout.poll();
-
-                    Token initialization = new Token(INITIALIZATION);
-
-                    ((LinkedList<Token>) out).add(initialization.add(last).add(normalize(inout, true)));
-                } catch (NoSuchElementException e)
-                {
-                    Token token = inout.peek();
-                    if (token == null)
-                        token = new Token(UNDEFINED);
-
-                    String tokens = "";
-                    for (int i = 0; i < 5; i ++)
-                        if (inout.peek() != null)
-                            tokens += " " + inout.poll().smartString();
-                    System.err.println("no match for tokens: " + tokens);
-                    System.err.println("equals '=' used inappropriately.");
-                    System.err.println("infostr: " + token.infoString());
-
-                    e.printStackTrace();
-                    System.exit(-1);
-                }
-            }
-
-            /**
-             * cast
-             */
-            else if (inout.matches(Token.Type.PARENTHESIS_OPEN, Token.Type.IDENTIFIER, Token.Type.PARENTHESIS_CLOSED))
-            {
-                Token cast = new Token(Token.Type.CAST);
-                ((LinkedList<Token>) out).add(cast.add(inout.poll()));
-            }
-
-            /**
-             * The right hand side is a method call
-             */
-            else if (inout.matches(Token.Type.IDENTIFIER, Token.Type.PARENTHESIS_OPEN))
-            {
-                Token invocation = new Token(Token.Type.METHOD_CALL);
-
-                Token methodName = inout.poll();
-                Token parenthesis = closeParenthesis(inout.tokens);
-
-                normalize(parenthesis);
-
-                while (inout.peek().equals(END))
-                    inout.poll();
-
-                invocation = checkAccess(inout, invocation);
-
-                ((LinkedList<Token>) out).add(invocation.add(methodName).add(parenthesis));
-            }
-
-
-
-            /**
-             * The right hand is parsed differently
-             * Possible multiplication syntax.
-             */
-            else if (inout.matches(Token.Type.MULTIPLICATION, Token.Type.IDENTIFIER, Token.Type.ANY_NOT_END))
-            {
-                inout.poll();
-                mod.add(Modifier.DEREFERENCE);
-                Token identifier = inout.poll().setModifiers(mod);
-
-                Token rest = new Token(VALUE);
-
-                rest.children.addAll(normalize(inout, false, true));
-
-                ((LinkedList<Token>) out).add(checkAccess(inout, identifier));
-                ((LinkedList<Token>) out).addAll(rest.children);
-            }
-
-
-
-            /**
-             * The right hand side is an *identifier.
-             */
-            else if (inout.matches(Token.Type.MULTIPLICATION, Token.Type.IDENTIFIER))
-            {
-                inout.poll();
-                mod.add(Modifier.DEREFERENCE);
-                Token identifier = inout.poll().setModifiers(mod);
-
-                ((LinkedList<Token>) out).add(identifier);
-            }
-
-
-
-            else if (inout.matches(MULTIPLICATION))
-            {
-                ((LinkedList<Token>) out).add(inout.poll());
-            }
-
-            /**
-             * Standard method declaration
-             *
-             * type name () {}?
-             */
-            else if (inout.matches(Token.Type.IDENTIFIER, Token.Type.IDENTIFIER, Token.Type.PARENTHESIS_OPEN))
-            {
-                Token funcshin = new Token(METHOD_DECLARATION);
-                Token returntp = inout.poll();
-                funcshin.dataFrom(returntp);
-
-                Token funcname = inout.poll();
-                Token parenths = closeParenthesis(inout.tokens);
-                Token body     = new Token(UNDEFINED);
-
-                while (inout.peek().equals(END))
-                    inout.poll();
-
-                if (inout.peek().equals(BRACES_OPEN))
-                    body       = closeBrace(inout.tokens);
-                else if (inout.peek().equals(BRACES))
-                    body       = inout.poll();
-
-                if (body.equals(UNDEFINED))
-                    funcshin.setType(METHOD_EMPTY_DECLARATION);
-
-                normalize(body);
-
-                funcshin.add(returntp).add(funcname).add(parenths).add(body).setModifiers(mod);
-                funcshin.modErrors();
-
-                ((LinkedList<Token>) out).add(funcshin);
-            }
-
-            /**
-             * Standard field declaration
-             */
-            else if (inout.matches(Token.Type.IDENTIFIER, Token.Type.IDENTIFIER))
-            {
-                Token fieldtpe = new Token(EMPTY_DECLARATION);
-                Token typename = inout.poll();
-                fieldtpe.dataFrom(typename);
-                Token defdname = inout.poll();
-
-                fieldtpe.add(typename).add(defdname).setType(Token.Type.EMPTY_DECLARATION).setModifiers(mod);
-                typename.modErrors();
-
-                ((LinkedList<Token>) out).add(fieldtpe);
-            }
-
-
-            /**
-             * All that is left is an identifier (right hand side argument)
-             */
-            else if (inout.matches(Token.Type.IDENTIFIER))
-            {
-                Token identifier = inout.poll();
-
-                ((LinkedList<Token>) out).add(checkAccess(inout, identifier));
-            }
-
-            /**
-             * Double
-             */
-            else if(inout.matches(Token.Type.NUMBER, Token.Type.PROCEDURAL_ACCESS, Token.Type.NUMBER) || inout.matches(Token.Type.NUMBER, Token.Type.PROCEDURAL_ACCESS))
-            {
-                Token n0 = inout.poll().setType(DECIMAL);
-                inout.poll();
-
-                if (inout.peek().equals(NUMBER))
-                    n0.append("." + inout.poll().data);
-
-                ((LinkedList<Token>) out).add(n0);
-            }
-
-            /**
-             * Int
-             */
-            else if(inout.matches(Token.Type.NUMBER))
-            {
-                ((LinkedList<Token>) out).add(inout.poll());
-            }
-
-
-            /**
-             * Standard class declaration
-             */
-            else if (inout.matches(Token.Type.KEYWORD, Token.Type.IDENTIFIER, Token.Type.BRACES_OPEN))
-            {
-                Token tClass = inout.poll();
-                Token name   = inout.poll();
-                Token body   = closeBrace(inout.tokens);
-                normalize(body);
-
-                Token parent = new Token(Token.Type.UNDEFINED);
-
-                tClass.add(name).add(parent).add(body).setType(Token.Type.CLASS_DECLARATION).setModifiers(mod);
-                tClass.modErrors();
-
-                ((LinkedList<Token>) out).add(tClass);
-            }
-
-            /**
-             * Class declaration with inheritance
-             */
-            else if (inout.matches(Token.Type.KEYWORD, Token.Type.IDENTIFIER, Token.Type.COLON, Token.Type.KEYWORD, Token.Type.IDENTIFIER , Token.Type.BRACES_OPEN))
-            {
-                Token tClass = inout.poll();
-                Token name   = inout.poll();
-                Token parent = inout.skipPoll();
-
-                Token body   = closeBrace(inout.tokens);
-                normalize(body);
-
-                tClass.add(name).add(parent).add(body).setType(Token.Type.CLASS_DECLARATION).setModifiers(mod);
-                tClass.modErrors();
-
-                ((LinkedList<Token>) out).add(tClass);
-            } else if (inout.peek().equals(Token.Type.BRACES_CLOSED) || inout.peek().equals(Token.Type.PARENTHESIS_CLOSED))
-            {
-                return out;
-            } else if (inout.peek().getType().equals(Token.Type.END))
-            {
-                inout.poll();
-                if (nextEndLine)
-                    return out;
-            } else if (inout.peek().equals(BRACES) || inout.peek().equals(BRACKETS) || inout.peek().equals(PARENTHESIS))
-            {
-                Token token = inout.poll();
-                normalize(token);
-                ((LinkedList<Token>) out).add(token);
-            } else if(inout.peek().equals(PARENTHESIS_OPEN))
-            {
-                Token tok = closeParenthesis(inout.tokens);
-                normalize(tok);
-                ((LinkedList<Token>) out).add(tok);
-            } else if(inout.peek().equals(BRACES_OPEN))
-            {
-                Token tok = closeBrace(inout.tokens);
-                normalize(tok);
-                ((LinkedList<Token>) out).add(tok);
-            } else
-            {
-                Token token = inout.peek();
-                if (token == null)
-                    token = new Token(UNDEFINED);
-                String tokens = "";
-                for (int i = 0; i < 5; i ++)
-                    if (inout.peek() != null)
-                        tokens += " " + inout.poll().smartString();
-                System.err.println("no match for tokens: " + tokens);
-                System.err.println("infostr: " + token.infoString());
-                System.exit(-1);
-            }
-
-//            switch (token.type)
-//            {
-//                case IDENTIFIER:
-//                    Token tClass = inout.poll();
-//
-//                    Token name   = inout.poll();
-//                    tClass.add(name);
-//
-//                    if (inout.peek().getType().equals(Token.Type.BRACES_OPEN))
-//                        tClass.add(closeBrace(inout));
-//
-//                    ((LinkedList<Token>) out).add(tClass);
-//                    break;
-//            }
-        }
-
-        return out;
+        return mTokens;
     }
 
-    public Queue<Token> getTokens()
+    public Symbols getSymbols()
     {
-        return mTokens;
+        return mSymbols;
     }
 
     public Iterable<? extends CompilerFlag> GetCompilerFlags()
@@ -0,0 +1,93 @@
+package mochaxx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream that writes to whatever stream the current thread has bound,
+ * or to the fallback stream otherwise.
+ *
+ * Installed as System.out / System.err while several files compile at once, so
+ * every file's diagnostics can be collected separately and printed in order.
+ */
+public class RoutedOutputStream extends OutputStream
+{
+    private final OutputStream              fallback;
+    private final ThreadLocal<OutputStream> route = new ThreadLocal<>();
+
+    public RoutedOutputStream(OutputStream fallback)
+    {
+        this.fallback = fallback;
+    }
+
+    /**
+     * Binds 'stream' to the current thread, or unbinds it if 'stream' is null.
+     */
+    public void bind(OutputStream stream)
+    {
+        if (stream == null)
+            route.remove();
+        else
+            route.set(stream);
+    }
+
+    /**
+     * @return the stream the current thread has bound, or null if it has none.
+     */
+    public OutputStream bound()
+    {
+        return route.get();
+    }
+
+    public void unbind()
+    {
+        route.remove();
+    }
+
+    /**
+     * @return 'task' made to write to the stream this thread has bound now, on whichever
+     * thread it runs. The thread's own binding is put back afterwards.
+     */
+    public Runnable carry(Runnable task)
+    {
+        OutputStream stream = route.get();
+
+        return () ->
+        {
+            OutputStream previous = route.get();
+
+            route.set(stream);
+
+            try {
+                task.run();
+            } finally {
+                route.set(previous);
+            }
+        };
+    }
+
+    public OutputStream current()
+    {
+        OutputStream stream = route.get();
+
+        return stream == null ? fallback : stream;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        current().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        current().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        current().flush();
+    }
+}
@@ -3,25 +3,138 @@ package mochaxx;
 import mochaxx.compiler.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class Start
 {
-    public static long version = 0;
+    private static RoutedOutputStream routedOut;
+    private static RoutedOutputStream routedErr;
 
-    private static String readData(String link) throws IOException
+    private final File    directory;
+    private final boolean remote;
+    private final long    bytesRead;
+    private final long    readTime;
+    private final long    cacheHits;
+    private final long    cacheMisses;
+    private final long    cacheEvictions;
+    private final long    classHits;
+    private final long    classMisses;
+    private long          version = 0;
+    private boolean       stats = false;
+    private int           jobs  = 1;
+    private boolean       lazy  = false;
+    private PrecompiledHeaders headers;
+    private BuildManifest manifest;
+    private int           upToDate;
+
+    /**
+     * One file pushed through the whole pipeline on a pool thread, with its
+     * stdout / stderr kept aside so they can be printed in command line order.
+     */
+    private static class CompileJob implements Callable<CompileJob>
+    {
+        private final String                file;
+        private final PrecompiledHeaders    headers;
+        private final boolean               lazy;
+        private final String                flags;
+        private final byte                  printed[];
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+        private List<DynamicLibraryLoader.Dependency> inputs;
+        private boolean                     failed;
+        private int                         status;
+        private long                        time;
+
+        CompileJob(String file, PrecompiledHeaders headers, boolean lazy, String flags)
+        {
+            this(file, headers, lazy, flags, null);
+        }
+
+        /**
+         * @param printed what the file printed the last time it was compiled, to print again
+         *                instead of compiling it while it is up to date (null to compile it).
+         */
+        CompileJob(String file, PrecompiledHeaders headers, boolean lazy, String flags, byte printed[])
+        {
+            this.file = file;
+            this.headers = headers;
+            this.lazy = lazy;
+            this.flags = flags;
+            this.printed = printed;
+        }
+
+        @Override
+        public CompileJob call()
+        {
+            long start = System.nanoTime();
+
+            if (printed != null)
+            {
+                out.write(printed, 0, printed.length);
+                time = System.nanoTime() - start;
+
+                return this;
+            }
+
+            bind(out, err);
+
+            try {
+                inputs = compile(file, headers, lazy);
+            } catch (CompileError e)
+            {
+                System.err.println(e.getMessage());
+                failed = true;
+                status = e.getStatus();
+            } catch (IOException e)
+            {
+                System.err.println("cannot read file '" + file + "'.");
+                failed = true;
+                status = 1;
+            } catch (RuntimeException e)
+            {
+                System.err.println("MochaAssembler: internal error in '" + file + "': " + e.getMessage());
+                failed = true;
+                status = 1;
+            } finally {
+                unbind();
+                time = System.nanoTime() - start;
+            }
+
+            return this;
+        }
+    }
+
+    /**
+     * @param directory relative paths are resolved against this directory (null for the working directory).
+     * @param remote    true when the arguments came from a daemon client.
+     */
+    public Start(File directory, boolean remote)
     {
-        BufferedReader reader = new BufferedReader(new FileReader(new File(link)));
-        String data = "";
-        String lineofdata = "";
+        this.directory  = directory;
+        this.remote     = remote;
+        this.bytesRead  = SourceLoader.getBytesRead();
+        this.readTime   = SourceLoader.getReadTime();
 
-        while ((lineofdata = reader.readLine()) != null)
-            data += lineofdata + "\n";
+        IncludeCache cache = IncludeCache.getShared();
+        this.cacheHits      = cache.getHits();
+        this.cacheMisses    = cache.getMisses();
+        this.cacheEvictions = cache.getEvictions();
 
-        reader.close();
+        IncludeCache classes = IncludeCache.getParsedClasses();
+        this.classHits      = classes == null ? 0 : classes.getHits();
+        this.classMisses    = classes == null ? 0 : classes.getMisses();
+    }
 
-        return data;
+    private static String readData(String link) throws IOException
+    {
+        return SourceLoader.read(new File(link));
     }
 
     private static void assemble(String link) throws IOException
@@ -47,6 +160,18 @@ public class Start
             System.exit(0);
         }
 
+        int status = new Start(null, false).run(args);
+
+        if (status != 0)
+            System.exit(status);
+    }
+
+    /**
+     * Runs one command line and returns the exit status, so the same commands
+     * can be served by a CompileDaemon without exiting the VM.
+     */
+    public int run(String[] args) throws IOException
+    {
         LinkedList<String> queue = new LinkedList<>();
 
         for (String arg : args)
@@ -54,6 +179,31 @@ public class Start
 
         Collections.reverse(queue);
 
+        List<CompileJob> batch = new ArrayList<>();
+        int status = 0;
+
+        try {
+            status = run(queue, batch);
+        } catch (CompileError e)
+        {
+            System.err.println(e.getMessage());
+            writeManifest();
+            return e.getStatus();
+        }
+
+        if (status == 0 && batch.size() > 0)
+            status = compile(batch);
+
+        writeManifest();
+
+        if (stats)
+            printStats();
+
+        return status;
+    }
+
+    private int run(LinkedList<String> queue, List<CompileJob> batch) throws IOException
+    {
         while (queue.size() > 0)
         {
             String arg = queue.poll();
@@ -61,33 +211,326 @@ public class Start
             switch (arg)
             {
                 case "-c":
-                    compile(queue.poll());
+                    String file = path(queue.poll());
+                    byte printed[] = null;
+                    if (manifest != null && manifest.isUpToDate(file, flags()))
+                    {
+                        printed = manifest.getPrinted(file);
+                        upToDate ++;
+                    }
+                    if (jobs > 1)
+                        batch.add(new CompileJob(file, headers, lazy, flags(), printed));
+                    else if (printed != null)
+                        replay(printed);
+                    else
+                        compileRecorded(file);
+                    break;
+                case "-incremental":
+                    manifest = new BuildManifest(new File(path(queue.poll())));
+                    break;
+                case "-pch":
+                    headers = new PrecompiledHeaders(new File(path(queue.poll())));
+                    break;
+                case "-lazy":
+                    lazy = true;
+                    break;
+                case "-j":
+                    jobs = Math.max(1, Integer.parseInt(queue.poll()));
                     break;
                 case "-v":
                     version = Long.parseLong(queue.poll());
                     break;
+                case "-stats":
+                    stats = true;
+                    break;
                 case "-assembler":
                 case "-a":
-                    assemble(queue.poll());
+                    assemble(path(queue.poll()));
                     break;
                 case "-generator":
                 case "-g":
-                    generate(queue.poll());
+                    generate(path(queue.poll()));
+                    break;
+                case "-daemon":
+                    if (remote)
+                        throw new CompileError("MochaAssembler: 'cmd' is not allowed on the compile daemon.".replace("cmd", arg));
+                    new CompileDaemon(Integer.parseInt(queue.poll())).serve();
                     break;
+                case "-remote":
+                    if (remote)
+                        throw new CompileError("MochaAssembler: 'cmd' is not allowed on the compile daemon.".replace("cmd", arg));
+                    int port = Integer.parseInt(queue.poll());
+                    return CompileDaemon.forward(port, queue.toArray(new String[queue.size()]));
                     default:
-                        System.err.println("MochaAssembler: unknown command 'cmd'.".replace("cmd", arg));
-                        System.exit(0);
-                        break;
+                        throw new CompileError("MochaAssembler: unknown command 'cmd'.".replace("cmd", arg));
+            }
+        }
+
+        return 0;
+    }
+
+    private String path(String link)
+    {
+        if (directory == null || link == null || new File(link).isAbsolute())
+            return link;
+
+        return new File(directory, link).getPath();
+    }
+
+    /**
+     * Replaces System.out / System.err with routed streams once per VM, so threads
+     * that compile on behalf of a batch or a daemon client can bind their own output.
+     */
+    static synchronized void routeOutput()
+    {
+        if (routedOut != null)
+            return;
+
+        routedOut = new RoutedOutputStream(System.out);
+        routedErr = new RoutedOutputStream(System.err);
+
+        System.setOut(new PrintStream(routedOut, true));
+        System.setErr(new PrintStream(routedErr, true));
+    }
+
+    static void bind(OutputStream out, OutputStream err)
+    {
+        routeOutput();
+
+        routedOut.bind(out);
+        routedErr.bind(err);
+    }
+
+    /**
+     * @return 'task' made to write where this thread's output is bound, for work handed to
+     * another thread on its behalf.
+     */
+    static Runnable carryOutput(Runnable task)
+    {
+        RoutedOutputStream out = routedOut;
+        RoutedOutputStream err = routedErr;
+
+        return out == null ? task : out.carry(err.carry(task));
+    }
+
+    static void unbind()
+    {
+        System.out.flush();
+        System.err.flush();
+
+        routedOut.unbind();
+        routedErr.unbind();
+    }
+
+    /**
+     * Compiles independent files on a ForkJoin pool of 'jobs' threads. Output is
+     * buffered per file and printed in the order the files were given, followed
+     * by a summary; the first failing file decides the exit status.
+     */
+    private int compile(List<CompileJob> files) throws IOException
+    {
+        ForkJoinPool        pool        = new ForkJoinPool(jobs);
+        List<CompileJob>    done        = new ArrayList<>();
+
+        long start = System.nanoTime();
+
+        routeOutput();
+
+        try {
+            List<ForkJoinTask<CompileJob>> tasks = new ArrayList<>();
+
+            for (CompileJob file : files)
+                tasks.add(pool.submit(file));
+
+            for (ForkJoinTask<CompileJob> task : tasks)
+            {
+                CompileJob job = task.join();
+
+                System.out.flush();
+                job.out.writeTo(routedOut.current());
+                routedOut.current().flush();
+
+                System.err.flush();
+                job.err.writeTo(routedErr.current());
+                routedErr.current().flush();
+
+                done.add(job);
+
+                if (!job.failed && job.printed == null)
+                    record(job.file, job.flags, job.inputs, job.out.toByteArray());
             }
+        } finally {
+            pool.shutdown();
+        }
+
+        long time = System.nanoTime() - start;
+
+        System.out.println("compiled " + files.size() + " file(s) in " + (time / 1000000.0) + "ms using " + jobs + " job(s).");
+
+        CompileJob failed = null;
+
+        for (CompileJob job : done)
+        {
+            System.out.println("\t" + job.file + ": " + (job.time / 1000000.0) + "ms" + (job.failed ? " (failed)" : ""));
+
+            if (job.failed && failed == null)
+                failed = job;
+        }
+
+        return failed != null ? failed.status : 0;
+    }
+
+    /**
+     * @return the options that change what a compile produces, as the build manifest keeps them.
+     */
+    private String flags()
+    {
+        return "lazy=" + lazy + " version=" + version + " pch=" + (headers == null ? "" : headers.getDirectory().getAbsolutePath());
+    }
+
+    private void record(String file, String flags, List<DynamicLibraryLoader.Dependency> inputs, byte printed[])
+    {
+        if (manifest != null)
+            manifest.record(file, flags, inputs, printed);
+    }
+
+    /**
+     * Compiles a file on this thread. With a manifest, what it prints is copied aside as it
+     * goes, so the manifest can print it again while the file is up to date.
+     */
+    private void compileRecorded(String file) throws IOException
+    {
+        if (manifest == null)
+        {
+            compile(file, headers, lazy);
+            return;
+        }
+
+        routeOutput();
+        System.out.flush();
+
+        ByteArrayOutputStream   printed = new ByteArrayOutputStream();
+        OutputStream            out     = routedOut.bound();
+
+        routedOut.bind(new TeeOutputStream(routedOut.current(), printed));
+
+        List<DynamicLibraryLoader.Dependency> inputs;
+
+        try {
+            inputs = compile(file, headers, lazy);
+        } finally {
+            System.out.flush();
+            routedOut.bind(out);
+        }
+
+        record(file, flags(), inputs, printed.toByteArray());
+    }
+
+    private static void replay(byte printed[]) throws IOException
+    {
+        System.out.flush();
+        System.out.write(printed);
+        System.out.flush();
+    }
+
+    /**
+     * Writes to two streams at once.
+     */
+    private static class TeeOutputStream extends OutputStream
+    {
+        private final OutputStream first;
+        private final OutputStream second;
+
+        TeeOutputStream(OutputStream first, OutputStream second)
+        {
+            this.first = first;
+            this.second = second;
         }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            first.write(b);
+            second.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            first.write(b, off, len);
+            second.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            first.flush();
+            second.flush();
+        }
+    }
+
+    private void writeManifest() throws IOException
+    {
+        if (manifest != null)
+            manifest.write();
+    }
+
+    private void printStats()
+    {
+        IncludeCache cache = IncludeCache.getShared();
+
+        System.out.println("stats: read " + (SourceLoader.getBytesRead() - bytesRead) + " bytes in " + ((SourceLoader.getReadTime() - readTime) / 1000000.0) + "ms.");
+        System.out.println("stats: include cache " + (cache.getHits() - cacheHits) + " hits, " + (cache.getMisses() - cacheMisses) + " misses, " + (cache.getEvictions() - cacheEvictions) + " evictions.");
+
+        IncludeCache classes = IncludeCache.getParsedClasses();
+
+        if (classes != null)
+            System.out.println("stats: parsed classes " + (classes.getHits() - classHits) + " reused, " + (classes.getMisses() - classMisses) + " parsed.");
+
+        if (manifest != null)
+            System.out.println("stats: " + upToDate + " file(s) up to date.");
+
+        if (headers != null)
+            System.out.println("stats: precompiled headers " + headers.getLoaded() + " loaded, " + headers.getWritten() + " written.");
     }
 
-    private static void compile(String poll) throws IOException
+    /**
+     * @return the file itself and everything it included, with the hashes that were compiled.
+     */
+    private static List<DynamicLibraryLoader.Dependency> compile(String poll, PrecompiledHeaders headers, boolean lazy) throws IOException
     {
-        String data = readData(poll);
-        PreprocessedProgram program = new PreprocessedProgram(data, new File(poll), new DynamicLibraryLoader(new File(poll)));
-        LexedProgram lexedProgram = new LexedProgram(program.getFinalProgram());
-        ParsedProgram parsedProgram = new ParsedProgram(lexedProgram);
-        CompiledProgram finalProgram = new CompiledProgram(parsedProgram);
+        File        file    = new File(poll);
+        ByteBuffer  bytes   = SourceLoader.readBytes(file);
+
+        List<DynamicLibraryLoader.Dependency> inputs = new ArrayList<>();
+        inputs.add(new DynamicLibraryLoader.Dependency(file.getAbsolutePath(), IncludeCache.hash(bytes)));
+        inputs.addAll(compile(SourceLoader.decode(bytes), file, headers, lazy));
+
+        return inputs;
+    }
+
+    static void compile(String data, File location)
+    {
+        compile(data, location, null);
+    }
+
+    static List<DynamicLibraryLoader.Dependency> compile(String data, File location, PrecompiledHeaders headers)
+    {
+        return compile(data, location, headers, false);
+    }
+
+    /**
+     * @param lazy parse method bodies only when the code generator asks for them, and only
+     *             generate the functions 'location' declares and those they reach.
+     */
+    static List<DynamicLibraryLoader.Dependency> compile(String data, File location, PrecompiledHeaders headers, boolean lazy)
+    {
+        DynamicLibraryLoader loader = new DynamicLibraryLoader(IncludeCache.getShared(), headers, location);
+        PreprocessedProgram program = new PreprocessedProgram(data, location, loader);
+        LexedProgram lexedProgram = new LexedProgram(program.getFinalProgram(), program.getSourceMap());
+        ParsedProgram parsedProgram = new ParsedProgram(lexedProgram, lazy);
+        CompiledProgram finalProgram = new CompiledProgram(parsedProgram, location.getPath());
+
+        return loader.getDependencies();
     }
 }
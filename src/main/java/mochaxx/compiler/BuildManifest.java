@@ -0,0 +1,193 @@
+package mochaxx.compiler;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Remembers, for every file that compiled cleanly, the options it was compiled with and
+ * each file and library that went into it with the hash of its content at the time.
+ *
+ * The manifest is a text file: a compiled file's path and its options on one line, split
+ * by a tab, followed by one tab-indented "path hash" line per input. A file is up to date
+ * while it is compiled with the same options and every one of its inputs still hashes the
+ * same, so editing a header only rebuilds the files that include it.
+ *
+ * What compiling a file printed, which is all the compiler produces, is kept in a directory
+ * next to the manifest, one file per compiled file, so an up to date file can print it again
+ * and an incremental build prints the same as a clean one.
+ */
+public class BuildManifest
+{
+    private final File                                  file;
+    private final File                                  directory;
+    private final Map<String, List<DynamicLibraryLoader.Dependency>> outputs = new TreeMap<>();
+    private final Map<String, String>                   flags   = new HashMap<>();
+    private final Map<String, String>                   hashes  = new HashMap<>();
+    private final Map<String, byte[]>                   printed = new HashMap<>();
+
+    public BuildManifest(File file) throws IOException
+    {
+        this.file = file;
+        this.directory = new File(file.getPath() + ".out");
+
+        if (file.isFile())
+            read();
+    }
+
+    private void read() throws IOException
+    {
+        List<DynamicLibraryLoader.Dependency> inputs = null;
+
+        for (String line : SourceLoader.read(file).split("\n"))
+        {
+            if (line.isEmpty())
+                continue;
+
+            if (!line.startsWith("\t"))
+            {
+                int     tab     = line.lastIndexOf('\t');
+                String  output  = tab < 0 ? line : line.substring(0, tab);
+
+                inputs = new ArrayList<>();
+                outputs.put(output, inputs);
+                flags.put(output, tab < 0 ? "" : line.substring(tab + 1));
+                continue;
+            }
+
+            int split = line.lastIndexOf(' ');
+
+            if (inputs == null || split < 0)
+                throw new IOException("malformed build manifest '" + file + "'.");
+
+            inputs.add(new DynamicLibraryLoader.Dependency(line.substring(1, split), line.substring(split + 1)));
+        }
+    }
+
+    /**
+     * @param flags the options that change what compiling the file produces.
+     * @return true if the file compiled cleanly before with the same options, what it printed
+     * is still kept and none of its inputs changed since.
+     */
+    public synchronized boolean isUpToDate(String output, String flags)
+    {
+        List<DynamicLibraryLoader.Dependency> inputs = outputs.get(key(output));
+
+        if (inputs == null || !flags.equals(this.flags.get(key(output))))
+            return false;
+
+        if (!printed.containsKey(key(output)) && !printed(key(output)).isFile())
+            return false;
+
+        for (DynamicLibraryLoader.Dependency input : inputs)
+            if (!input.getHash().equals(hash(input.getPath())))
+                return false;
+
+        return true;
+    }
+
+    /**
+     * @param printed what compiling the file printed, to print again while it is up to date.
+     */
+    public synchronized void record(String output, String flags, List<DynamicLibraryLoader.Dependency> inputs, byte printed[])
+    {
+        Map<String, DynamicLibraryLoader.Dependency> unique = new LinkedHashMap<>();
+
+        for (DynamicLibraryLoader.Dependency input : inputs)
+        {
+            unique.put(input.getPath(), input);
+            hashes.put(input.getPath(), input.getHash());
+        }
+
+        outputs.put(key(output), new ArrayList<>(unique.values()));
+        this.flags.put(key(output), flags);
+        this.printed.put(key(output), printed);
+    }
+
+    /**
+     * @return what compiling an up to date file printed the last time it was compiled.
+     */
+    public synchronized byte[] getPrinted(String output) throws IOException
+    {
+        byte kept[] = printed.get(key(output));
+
+        return kept != null ? kept : Files.readAllBytes(printed(key(output)).toPath());
+    }
+
+    /**
+     * Writes what the files compiled since the last write printed, then the manifest next to
+     * its final location, and moves each into place.
+     */
+    public synchronized void write() throws IOException
+    {
+        if (!printed.isEmpty() && !directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("cannot create directory '" + directory + "'.");
+
+        for (Map.Entry<String, byte[]> output : printed.entrySet())
+            replace(printed(output.getKey()), output.getValue());
+
+        printed.clear();
+
+        StringBuilder manifest = new StringBuilder();
+
+        for (Map.Entry<String, List<DynamicLibraryLoader.Dependency>> output : outputs.entrySet())
+        {
+            manifest.append(output.getKey()).append('\t').append(flags.get(output.getKey())).append('\n');
+
+            for (DynamicLibraryLoader.Dependency input : output.getValue())
+                manifest.append('\t').append(input).append('\n');
+        }
+
+        replace(file, manifest.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void replace(File file, byte content[]) throws IOException
+    {
+        File temporary = File.createTempFile("manifest", ".tmp", file.getAbsoluteFile().getParentFile());
+
+        try {
+            Files.write(temporary.toPath(), content);
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temporary.delete();
+        }
+    }
+
+    /**
+     * @return where the output of the file at 'key' is kept.
+     */
+    private File printed(String key)
+    {
+        return new File(directory, IncludeCache.hash(ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8))) + ".out");
+    }
+
+    /**
+     * Hashes each input once per run, however many files share it.
+     */
+    private String hash(String path)
+    {
+        String hash = hashes.get(path);
+
+        if (hash == null)
+        {
+            try {
+                hash = DynamicLibraryLoader.hash(path);
+            } catch (IOException e)
+            {
+                hash = "";
+            }
+
+            hashes.put(path, hash);
+        }
+
+        return hash;
+    }
+
+    private static String key(String output)
+    {
+        return new File(output).getAbsolutePath();
+    }
+}
@@ -0,0 +1,65 @@
+package mochaxx.compiler;
+
+/**
+ * Removes '//' and block comments in one pass over the text.
+ *
+ * Block comments keep their line ends, so every line stays where it was. Quotes start a
+ * string where the lexer would start one (not straight after a word), and comment markers
+ * inside a string are left alone. Like in the lexer, a string ends at its closing quote
+ * or at the line end.
+ */
+public class Comments
+{
+    public static String strip(String text)
+    {
+        if (text.indexOf('/') < 0)
+            return text;
+
+        final int       length  = text.length();
+        StringBuilder   out     = new StringBuilder(length);
+        char            last    = '\n';
+
+        for (int i = 0; i < length; i ++)
+        {
+            char current = text.charAt(i);
+
+            if ((current == '"' || current == '\'') && Lexer.classOf(last) != Lexer.OTHER)
+            {
+                int end = i + 1;
+
+                while (end < length && text.charAt(end) != '\n' && (text.charAt(end) != current || text.charAt(end - 1) == '\\'))
+                    end ++;
+
+                end = Math.min(length, end < length && text.charAt(end) == current ? end + 1 : end);
+
+                out.append(text, i, end);
+                last = text.charAt(end - 1);
+                i = end - 1;
+            }
+            else if (current == '/' && i + 1 < length && text.charAt(i + 1) == '/')
+            {
+                int end = text.indexOf('\n', i);
+
+                i = (end < 0 ? length : end) - 1;
+            }
+            else if (current == '/' && i + 1 < length && text.charAt(i + 1) == '*')
+            {
+                int end = text.indexOf("*/", i + 2);
+                end = end < 0 ? length : end + 2;
+
+                for (int j = i; j < end; j ++)
+                    if (text.charAt(j) == '\n')
+                        out.append(last = '\n');
+
+                i = end - 1;
+            }
+            else
+            {
+                out.append(current);
+                last = current;
+            }
+        }
+
+        return out.toString();
+    }
+}
@@ -0,0 +1,29 @@
+package mochaxx.compiler;
+
+/**
+ * Raised by the front end instead of exiting the VM, so a driver that compiles
+ * several files can report the failure and carry on. Start turns it back into
+ * the exit status the old System.exit() call used.
+ */
+public class CompileError extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public CompileError(String message)
+    {
+        this(message, 0);
+    }
+
+    public CompileError(String message, int status)
+    {
+        super(message);
+        this.status = status;
+    }
+
+    public int getStatus()
+    {
+        return status;
+    }
+}
@@ -4,21 +4,114 @@ import mochaxx.Start;
 import mochaxx.Tuple;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 public class DynamicLibraryLoader
 {
-    private Map<String, String> files = new HashMap<>();
-    private File                main;
+    /**
+     * Classpath libraries cannot change while the VM runs, so their content hash is
+     * remembered and a cached copy can be used without reading the resource again.
+     */
+    private static final Map<String, String> libraryHashes = new ConcurrentHashMap<>();
+
+    /**
+     * The size and modification time of every file when it was last hashed, so checking
+     * that a cached expansion is still current does not read and hash its files again.
+     */
+    private static final Map<String, Stamp>  stamps = new ConcurrentHashMap<>();
+
+    /**
+     * A file changed this many milliseconds or less before it was hashed may change again
+     * without its modification time moving, on file systems with coarse timestamps.
+     */
+    private static final long               RACY = 2000;
+
+    private final IncludeCache              cache;
+    private final PrecompiledHeaders        headers;
+    private final Deque<List<Dependency>>   dependencies = new ArrayDeque<>();
+    private final Set<String>               expanding = new HashSet<>();
+    private File                            main;
 
     public static final String extensions[] = {
             "mxx", "m++", "mpp", "m", "mocha", "mochapp", "mochaplusplus"
     };
 
+    /**
+     * A file that went into a compile, and the hash of the content that was used.
+     */
+    public static class Dependency
+    {
+        private final String path;
+        private final String hash;
+
+        public Dependency(String path, String hash)
+        {
+            this.path = path;
+            this.hash = hash;
+        }
+
+        public String getPath()
+        {
+            return path;
+        }
+
+        public String getHash()
+        {
+            return hash;
+        }
+
+        @Override
+        public String toString()
+        {
+            return path + " " + hash;
+        }
+    }
+
+    private static class Stamp
+    {
+        private final long      modified;
+        private final long      length;
+        private final long      taken;
+        private final String    hash;
+
+        /**
+         * @param modified the modification time and 'length' the size, read before the file was.
+         */
+        Stamp(long modified, long length, String hash)
+        {
+            this.modified = modified;
+            this.length = length;
+            this.taken = System.currentTimeMillis();
+            this.hash = hash;
+        }
+
+        /**
+         * @return true if the file still has the hash it had.
+         */
+        boolean matches(File file)
+        {
+            return taken - modified > RACY && file.lastModified() == modified && file.length() == length;
+        }
+    }
+
     public DynamicLibraryLoader(File main, File... file)
     {
+        this(IncludeCache.getShared(), null, main);
+    }
+
+    /**
+     * @param headers where expanded includes are kept between runs (null to keep them in memory only).
+     */
+    public DynamicLibraryLoader(IncludeCache cache, PrecompiledHeaders headers, File main)
+    {
+        this.cache = cache;
+        this.headers = headers;
         this.main = main;
+        this.dependencies.push(new ArrayList<>());
     }
 
     public String loadLibrary(String name)
@@ -28,71 +121,320 @@ public class DynamicLibraryLoader
 
     public Tuple<File, String> loadFile(String name)
     {
-        String utf_program = "";
+        File file = resolve(name);
+        ByteBuffer bytes = read(file, name);
 
-        try{
-            BufferedReader reader = new BufferedReader(new FileReader(new File(main + File.separator + name)));
+        return new Tuple<>(file, source(file.getAbsolutePath(), IncludeCache.hash(bytes), bytes));
+    }
+
+    /**
+     * Expands an external include against the current define table. A cached expansion
+     * is reused when the file, every file it included and the incoming defines are unchanged;
+     * the define table is then left exactly as expanding it again would have left it. Files
+     * whose size and modification time are unchanged are not read or hashed again.
+     *
+     * Files marked include-once expand to nothing after their first expansion.
+     */
+    public Tuple<String, SourceMap> include(String name, Map<String, String> master)
+    {
+        File        file    = resolve(name);
+        String      path    = file.getAbsolutePath();
+        Stamp       stamp   = stamps.get(path);
+        String      hash    = stamp != null && stamp.matches(file) ? stamp.hash : null;
+        String      source  = hash == null ? null : cache.getSource(path, hash);
 
-            String line = "";
+        if (source == null)
+        {
+            long        modified    = file.lastModified();
+            long        length      = file.length();
+            ByteBuffer  bytes       = read(file, name);
 
-            while ((line = reader.readLine()) != null)
-                utf_program += line + "\n";
+            hash    = IncludeCache.hash(bytes);
+            source  = source(path, hash, bytes);
+            stamps.put(path, new Stamp(modified, length, hash));
+        }
 
-            reader.close();
-        } catch (Exception e)
+        String      once    = isIncludeOnce(source) ? once(path) : null;
+
+        if (once != null && master.containsKey(once))
+        {
+            record(new Dependency(path, hash));
+            return new Tuple<>("", new SourceMap());
+        }
+
+        IncludeCache.Expansion expansion = cache.getExpansion(path, hash, master);
+
+        if (expansion != null && !isCurrent(expansion.getDependencies()))
+            expansion = null;
+
+        if (expansion == null && headers != null)
         {
-            System.err.println("cannot find file '" + name + "'.");
-            System.exit(0);
+            expansion = headers.load(path, hash, master);
+
+            if (expansion != null && isCurrent(expansion.getDependencies()))
+                cache.putExpansion(path, hash, master, expansion);
+            else
+                expansion = null;
+        }
+
+        if (expansion != null)
+        {
+            master.clear();
+            master.putAll(expansion.getDefines());
+
+            record(new Dependency(path, hash));
+            dependencies.peek().addAll(expansion.getDependencies());
+
+            return new Tuple<>(expansion.getProgram(), expansion.getSourceMap());
+        }
+
+        if (!expanding.add(path))
+            throw new CompileError("recursive include '" + name + "'.");
+
+        Map<String, String> before = new HashMap<>(master);
+
+        if (once != null)
+            master.put(once, "");
+
+        dependencies.push(new ArrayList<>());
+
+        PreprocessedProgram program;
+        List<Dependency> nested;
+
+        try {
+            program = new PreprocessedProgram(source, file, this, master);
+        } finally {
+            nested = dependencies.pop();
+            expanding.remove(path);
         }
 
-        return new Tuple<>(new File(main + File.separator + name), utf_program);
+        expansion = new IncludeCache.Expansion(program.getFinalProgram(), program.getSourceMap(), new HashMap<>(master), nested);
+        cache.putExpansion(path, hash, before, expansion);
+
+        if (headers != null)
+            headers.store(path, hash, before, expansion);
+
+        record(new Dependency(path, hash));
+        dependencies.peek().addAll(nested);
+
+        return new Tuple<>(program.getFinalProgram(), program.getSourceMap());
     }
 
-    private static String stdlib()
-            throws IOException
+    /**
+     * Fetches a library for splicing into the including program, or nothing when
+     * it is include-once and was already spliced in with this define table.
+     */
+    public String library(String d, Map<String, String> master)
     {
-        String utf_program = "";
+        String library = get(d);
 
-        String includes[] = {
-                "std", "rivercoin", "oop", "types", "utils"
-        };
+        if (isIncludeOnce(library))
+        {
+            String once = once(libraryPath(d));
+
+            if (master.containsKey(once))
+                return "";
+
+            master.put(once, "");
+        }
+
+        return library;
+    }
+
+    /**
+     * A file is include-once when it contains '#pragma once', or when everything in it
+     * sits inside one '#ifndef X' / '#define X' ... '#endif' guard.
+     */
+    static boolean isIncludeOnce(String source)
+    {
+        List<String> lines = new ArrayList<>();
 
-        for (String include : includes)
+        for (String line : source.split("\n"))
         {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(Start.class.getClassLoader().getResource("/mochaxx/libs/" + include + ".mxx").openStream()));
+            String trimmed = line.trim();
 
-            String line = "";
+            if (trimmed.matches("\\#(pragma)\\s+(once)"))
+                return true;
 
-            while ((line = reader.readLine()) != null)
-                utf_program += line + "\n";
+            if (trimmed.length() > 0 && !trimmed.startsWith("//"))
+                lines.add(trimmed);
+        }
+
+        if (lines.size() < 3 || !lines.get(0).matches("\\#(ifndef)\\s+([A-z](\\w*)*)") || !lines.get(lines.size() - 1).equals("#endif"))
+            return false;
+
+        String guard = lines.get(0).replaceAll("\\#(ifndef)\\s+", "");
+
+        if (!lines.get(1).matches("\\#(define)\\s+" + Pattern.quote(guard) + "(\\s+\\w*)?"))
+            return false;
+
+        int depth = 0;
 
-            reader.close();
+        for (int i = 0; i < lines.size() - 1; i ++)
+        {
+            if (lines.get(i).matches("\\#(ifn?def)\\s+.*"))
+                depth ++;
+            else if (lines.get(i).equals("#endif") && -- depth == 0)
+                return false;
         }
 
-        return utf_program;
+        return depth == 1;
     }
 
-    public String get(String d)
+    /**
+     * The define that marks an include-once file as expanded. It lives in the define
+     * table, so cached expansions capture and restore it like any other define.
+     */
+    private static String once(String path)
     {
-        String utf_program = "";
+        return "__once_" + IncludeCache.hash(ByteBuffer.wrap(path.getBytes(StandardCharsets.UTF_8)));
+    }
 
-        if (files.containsKey(d))
-            return files.get(d);
+    /**
+     * @return every file and library that went into this compile so far, in include order.
+     */
+    public List<Dependency> getDependencies()
+    {
+        return Collections.unmodifiableList(dependencies.getLast());
+    }
 
-        try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(Start.class.getClassLoader().getResource("mochaxx/libs/" + d + ".mxx").openStream()));
+    private void record(Dependency dependency)
+    {
+        dependencies.peek().add(dependency);
+    }
+
+    private boolean isCurrent(List<Dependency> dependencies)
+    {
+        for (Dependency dependency : dependencies)
+        {
+            if (dependency.path.startsWith("classpath:"))
+                continue;
+
+            try {
+                if (!hash(dependency.path).equals(dependency.hash))
+                    return false;
+            } catch (IOException e)
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
 
-            String line = "";
+    /**
+     * @return the hash of what is at the path now, for files as well as classpath libraries.
+     * A file is only read again if its size or modification time changed since it was hashed.
+     */
+    public static String hash(String path) throws IOException
+    {
+        if (!path.startsWith("classpath:"))
+        {
+            File    file    = new File(path);
+            Stamp   stamp   = stamps.get(path);
 
-            while ((line = reader.readLine()) != null)
-                utf_program += line + "\n";
+            if (stamp != null && stamp.matches(file))
+                return stamp.hash;
+
+            long    modified    = file.lastModified();
+            long    length      = file.length();
+            String  hash        = IncludeCache.hash(SourceLoader.readBytes(file));
+
+            stamps.put(path, new Stamp(modified, length, hash));
+
+            return hash;
+        }
+
+        String hash = libraryHashes.get(path);
+
+        if (hash == null)
+        {
+            InputStream resource = Start.class.getClassLoader().getResourceAsStream(path.substring("classpath:".length()));
+
+            if (resource == null)
+                throw new FileNotFoundException(path);
+
+            hash = IncludeCache.hash(SourceLoader.readBytes(resource));
+            libraryHashes.put(path, hash);
+        }
+
+        return hash;
+    }
 
-            reader.close();
+    /**
+     * @return the text of an include or library without comments, decoded and stripped
+     * once and then shared through the cache.
+     */
+    private String source(String path, String hash, ByteBuffer bytes)
+    {
+        String source = cache.getSource(path, hash);
+
+        if (source == null)
+        {
+            try {
+                source = Comments.strip(SourceLoader.decode(bytes));
+            } catch (IOException e)
+            {
+                throw new CompileError("cannot decode file '" + path + "'.");
+            }
+
+            cache.putSource(path, hash, source);
+        }
+
+        return source;
+    }
+
+    private ByteBuffer read(File file, String name)
+    {
+        try{
+            return SourceLoader.readBytes(file);
+        } catch (Exception e)
+        {
+            throw new CompileError("cannot find file '" + name + "'.");
+        }
+    }
+
+    private File resolve(String name)
+    {
+        File directory = main.isDirectory() ? main : main.getAbsoluteFile().getParentFile();
+
+        return new File(directory, name);
+    }
+
+    public static String libraryPath(String d)
+    {
+        return "classpath:mochaxx/libs/" + d + ".mxx";
+    }
+
+    public String get(String d)
+    {
+        String path = libraryPath(d);
+        String hash = libraryHashes.get(path);
+
+        if (hash != null)
+        {
+            String utf_program = cache.getSource(path, hash);
+
+            if (utf_program != null)
+            {
+                record(new Dependency(path, hash));
+                return utf_program;
+            }
+        }
+
+        ByteBuffer bytes;
+
+        try {
+            bytes = SourceLoader.readBytes(Start.class.getClassLoader().getResource("mochaxx/libs/" + d + ".mxx").openStream());
         } catch (Exception e) {
 //            e.printStackTrace();
-            System.err.println("no include '" + d + "' found.");
-            System.exit(0);
+            throw new CompileError("no include '" + d + "' found.");
         }
-        return utf_program;
+
+        hash = IncludeCache.hash(bytes);
+        libraryHashes.put(path, hash);
+        record(new Dependency(path, hash));
+
+        return source(path, hash, bytes);
     }
-}
\ No newline at end of file
+}
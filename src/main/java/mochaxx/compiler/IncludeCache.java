@@ -0,0 +1,252 @@
+package mochaxx.compiler;
+
+import mochaxx.Base16;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A process wide LRU cache of included sources and their preprocessed expansions.
+ *
+ * Entries are keyed by path plus a hash of the file content, so an edited file is
+ * simply a different key. Expansions are additionally keyed by the define table they
+ * were expanded with, and remember the files they included so a changed nested
+ * header invalidates them. The cache is bounded by the number of characters it holds.
+ *
+ * A cache can also hold parsed classes, keyed by a hash of their tokens; see
+ * setParsedClasses().
+ */
+public class IncludeCache
+{
+    public static final long DEFAULT_CAPACITY = 32 * 1024 * 1024;
+
+    private static final IncludeCache shared = new IncludeCache(DEFAULT_CAPACITY);
+
+    private static volatile IncludeCache parsedClasses;
+
+    private static class Key
+    {
+        private final String              path;
+        private final String              hash;
+        private final Map<String, String> defines;
+
+        Key(String path, String hash, Map<String, String> defines)
+        {
+            this.path = path;
+            this.hash = hash;
+            this.defines = defines;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+                return false;
+
+            Key key = (Key) obj;
+
+            return path.equals(key.path) && hash.equals(key.hash) && Objects.equals(defines, key.defines);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(path, hash, defines);
+        }
+    }
+
+    private static class Entry
+    {
+        private final Object value;
+        private final long   weight;
+
+        Entry(Object value, long weight)
+        {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    public static class Expansion
+    {
+        private final String                            program;
+        private final SourceMap                         sourceMap;
+        private final Map<String, String>               defines;
+        private final List<DynamicLibraryLoader.Dependency> dependencies;
+
+        Expansion(String program, SourceMap sourceMap, Map<String, String> defines, List<DynamicLibraryLoader.Dependency> dependencies)
+        {
+            this.program = program;
+            this.sourceMap = sourceMap;
+            this.defines = defines;
+            this.dependencies = dependencies;
+        }
+
+        public String getProgram()
+        {
+            return program;
+        }
+
+        public SourceMap getSourceMap()
+        {
+            return sourceMap;
+        }
+
+        public Map<String, String> getDefines()
+        {
+            return defines;
+        }
+
+        public List<DynamicLibraryLoader.Dependency> getDependencies()
+        {
+            return dependencies;
+        }
+    }
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long capacity;
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public IncludeCache(long capacity)
+    {
+        this.capacity = capacity;
+    }
+
+    public static IncludeCache getShared()
+    {
+        return shared;
+    }
+
+    /**
+     * Makes ParsedProgram keep every class it parses in full in 'cache' from now on, and hand
+     * out a copy of it the next time a class with the same tokens, from the same file and lines,
+     * is parsed. The compile daemon turns this on so included libraries stay parsed between
+     * requests; a lazy parse reuses classes but does not add any. Null turns it off.
+     */
+    public static void setParsedClasses(IncludeCache cache)
+    {
+        parsedClasses = cache;
+    }
+
+    /**
+     * @return the cache of parsed classes, or null if classes are not kept.
+     */
+    public static IncludeCache getParsedClasses()
+    {
+        return parsedClasses;
+    }
+
+    public synchronized String getSource(String path, String hash)
+    {
+        return (String) get(new Key(path, hash, null));
+    }
+
+    public synchronized void putSource(String path, String hash, String source)
+    {
+        put(new Key(path, hash, null), source, path.length() + source.length());
+    }
+
+    public synchronized Expansion getExpansion(String path, String hash, Map<String, String> defines)
+    {
+        return (Expansion) get(new Key(path, hash, defines));
+    }
+
+    public synchronized void putExpansion(String path, String hash, Map<String, String> before, Expansion expansion)
+    {
+        long size = path.length() + expansion.program.length();
+
+        for (Map.Entry<String, String> define : expansion.defines.entrySet())
+            size += define.getKey().length() + define.getValue().length();
+
+        put(new Key(path, hash, new HashMap<>(before)), expansion, size);
+    }
+
+    /**
+     * @return a parsed class put under 'fingerprint', to be copied and not changed, or null.
+     */
+    public synchronized Token getParsedClass(String fingerprint)
+    {
+        return (Token) get(new Key("", fingerprint, null));
+    }
+
+    /**
+     * @param size about the number of characters the class holds.
+     */
+    public synchronized void putParsedClass(String fingerprint, Token struct, long size)
+    {
+        put(new Key("", fingerprint, null), struct, size);
+    }
+
+    private Object get(Key key)
+    {
+        Entry entry = entries.get(key);
+
+        if (entry == null)
+        {
+            misses ++;
+            return null;
+        }
+
+        hits ++;
+        return entry.value;
+    }
+
+    private void put(Key key, Object value, long size)
+    {
+        Entry old = entries.put(key, new Entry(value, size));
+
+        if (old != null)
+            weight -= old.weight;
+
+        weight += size;
+
+        Iterator<Entry> iterator = entries.values().iterator();
+
+        while (weight > capacity && entries.size() > 1)
+        {
+            Entry eldest = iterator.next();
+            iterator.remove();
+
+            weight -= eldest.weight;
+            evictions ++;
+        }
+    }
+
+    public synchronized void setCapacity(long capacity)
+    {
+        this.capacity = capacity;
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    public static String hash(ByteBuffer bytes)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(bytes.duplicate());
+
+            return Base16.encode(digest.digest());
+        } catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -12,7 +12,12 @@ public class InfixToPostFixEvalution
         if (c == null)
             return false;
 
-        return precedence.containsKey(c.getType());
+        return isOperator(c.getType());
+    }
+
+    public static boolean isOperator(Token.Type type)
+    {
+        return precedence.containsKey(type);
     }
 
     private static final Map<Token.Type, Integer>
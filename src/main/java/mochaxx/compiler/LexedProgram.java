@@ -12,125 +12,38 @@
 
 package mochaxx.compiler;
 
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class LexedProgram
 {
-    private Set<Token> allChars = new LinkedHashSet<>();
-    int line = 1;
-    int whitespace = 0;
-    int offset = 0;
+    /**
+     * Programs of at least this many characters are lexed in chunks of CHUNK on the common pool.
+     */
+    public static final int PARALLEL    = 1 << 22;
+    public static final int CHUNK       = 1 << 20;
+
+    private TokenBuffer allChars;
+    private SourceMap sourceMap;
+    private String program;
+    private Symbols symbols = new Symbols();
 
     public LexedProgram(String program)
     {
-        program = program.replaceAll("//.*", "");
-
-        while (program.contains("/*"))
-            program = program.replace(program.substring(program.indexOf("/*"), program.indexOf("*/") + 2), "");
-
-        final char separators[] = { '.', '=', '+', '-', '\'', '"', ',', '<', '>', '?', ';', ':', '!', '\\', '/', '[', ']', '{', '}', '(', ')', '*', '&', '^', '%', '$', '#', '@', '~' };
-
-        /** this type of splitting into tokens will not work with strings, ie: "hello world" will turn into "hello and world" **/
-        String raw_words[] = program.replaceAll("\n", " ").split("\\s+");
-
-        final char EOF = '\0';
-        final char END = '\n';
-        final char WTS = ' ';
-        final char TAB = '\t';
-
-        boolean isString = false;
-
-        Token token = null;
-        Token prevs = null;
-
-        for (int i = 0; i < program.length(); i++)
-        {
-            char current = program.charAt(i);
-            char last = i > 0 ? program.charAt(i - 1) : '\0';
-            char next = i < program.length() - 1 ? program.charAt(i + 1) : '\0';
-
-            if (current == END)
-            {
-                line++;
-                allChars.add(token);
-                allChars.add(new Token(Token.Type.END));
-                preprocesses(token, prevs);
-                prevs = token;
-                token = null;
-                offset = 0;
-                whitespace = 0;
-                continue;
-            } else if (current == WTS && !(token != null && (token.toString().startsWith("\"") || token.toString().startsWith("\'"))))
-            {
-                whitespace++;
-                allChars.add(token);
-                offset ++;
-                preprocesses(token, prevs);
-                prevs = token;
-                token = null;
-                continue;
-            } else if (current == TAB && !(token != null && (token.toString().startsWith("\"") || token.toString().startsWith("\'"))))
-            {
-                whitespace += 4;
-                offset += 4;
-                allChars.add(token);
-                preprocesses(token, prevs);
-                prevs = token;
-                token = null;
-                continue;
-            }
-
-            boolean separator = false;
-
-            for (char s : separators) if (current == s) separator = true;
-
-            boolean wasnull = token == null;
-
-            if (token == null) token = new Token("", line, offset, whitespace);
-
-            isString = (token.toString().startsWith("\"") || token.toString().startsWith("\'"));
-
-            if (isString || (wasnull && (current == '"' || current == '\'')))
-            {
-                if (current == '"' || current == '\'' || separator)
-                {
-                    if (last == '\\') token.append(current);
-                    else if (token.toString().startsWith(current + ""))
-                    {
-                        token.append(current);
-                        allChars.add(token);
-                        prevs = token;
-                        token = null;
-                    } else token.append(current);
-                } else token.append(current);
-
-                offset++;
-                continue;
-            } else if (separator)
-            {
-                allChars.add(token);
-                token = new Token("" + current, line, offset, whitespace);
-                allChars.add(token);
-                prevs = token;
-                token = null;
-            } else token.append(current);
-
-            offset++;
-        }
-
-        allChars.remove(null);
-        preprocess();
+        this(Comments.strip(program), null);
     }
 
-    private void preprocesses(Token token, Token prevs)
+    /**
+     * @param program   text without comments, as PreprocessedProgram leaves it.
+     * @param sourceMap maps the lines of the preprocessed program back to the original files (null if it is not preprocessed).
+     */
+    public LexedProgram(String program, SourceMap sourceMap)
     {
-        if (token != null && token.toString().equals("reset") && prevs != null && prevs.toString().equals("#"))
-        {
-            line = 1;
-            allChars.remove(prevs);
-            allChars.remove(token);
-        }
+        this.sourceMap = sourceMap;
+        this.program = program;
+
+        preprocess();
     }
 
     private void preprocess()
@@ -167,17 +80,53 @@ public class LexedProgram
 //        }
     }
 
-    public Set<Token> getTokens()
+    public SourceMap getSourceMap()
     {
+        return sourceMap;
+    }
+
+    /**
+     * @return every token of the program, lexed the first time they are asked for.
+     */
+    public TokenBuffer getTokens()
+    {
+        if (allChars == null && program.length() >= PARALLEL)
+            allChars = Lexer.lex(program, sourceMap, symbols, ForkJoinPool.commonPool(), CHUNK);
+        else if (allChars == null)
+            allChars = new Lexer(program, sourceMap, symbols).lex();
+
         return allChars;
     }
-    public Set<Token> getCleanTokens()
+
+    /**
+     * @return the clean tokens, lexed as they are pulled and never all held at once. Programs
+     * big enough to be lexed in parallel are lexed up front instead.
+     */
+    public TokenSource getTokenSource()
     {
-        Set<Token> allChars = new LinkedHashSet<>();
+        if (program.length() >= PARALLEL)
+            return new TokenSource(getTokens());
+
+        return new TokenSource(program, sourceMap, symbols);
+    }
+
+    /**
+     * @return the symbols of the identifiers handed out so far.
+     */
+    public Symbols getSymbols()
+    {
+        return symbols;
+    }
+
+    public List<Token> getCleanTokens()
+    {
+        getTokens();
+
+        List<Token> allChars = new ArrayList<>(this.allChars.size());
 
-        for (Token token : this.allChars)
-            if (!(token.getType().equals(Token.Type.UNDEFINED) && token.toString().length() == 0))
-                allChars.add(token);
+        for (int i = 0; i < this.allChars.size(); i ++)
+            if (!(this.allChars.getType(i).equals(Token.Type.UNDEFINED) && this.allChars.getLength(i) == 0))
+                allChars.add(this.allChars.get(i));
 
         return allChars;
     }
@@ -0,0 +1,331 @@
+package mochaxx.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A table driven lexer.
+ *
+ * Every character falls into one of six classes through a 128 entry table (anything
+ * outside ASCII is OTHER), and the pair (state, class) selects an action from ACTIONS.
+ * There are three states: between tokens, inside a word and inside a string literal.
+ * Tokens go into a TokenBuffer as positions in the program together with their type,
+ * so nothing is copied or allocated per token while lexing.
+ */
+public class Lexer
+{
+    static final int NEWLINE    = 0;
+    static final int SPACE      = 1;
+    static final int TAB        = 2;
+    static final int QUOTE      = 3;
+    static final int SEPARATOR  = 4;
+    static final int OTHER      = 5;
+
+    private static final int NONE   = 0;
+    private static final int WORD   = 1;
+    private static final int STRING = 2;
+
+    private static final int END        = 0;
+    private static final int BLANK      = 1;
+    private static final int INDENT     = 2;
+    private static final int OPEN       = 3;
+    private static final int DELIMIT    = 4;
+    private static final int START      = 5;
+    private static final int APPEND     = 6;
+    private static final int CLOSE      = 7;
+
+    private static final byte CLASSES[] = new byte[128];
+    private static final String SYMBOLS[] = new String[128];
+    private static final Token.Type TYPES[] = new Token.Type[128];
+
+    /**
+     * ACTIONS[state][class].
+     */
+    private static final int ACTIONS[][] = {
+            /* NONE   */ { END, BLANK, INDENT, OPEN, DELIMIT, START },
+            /* WORD   */ { END, BLANK, INDENT, DELIMIT, DELIMIT, APPEND },
+            /* STRING */ { END, APPEND, APPEND, CLOSE, APPEND, APPEND },
+    };
+
+    static
+    {
+        final char separators[] = { '.', '=', '+', '-', '\'', '"', ',', '<', '>', '?', ';', ':', '!', '\\', '/', '[', ']', '{', '}', '(', ')', '*', '&', '^', '%', '$', '#', '@', '~' };
+
+        for (int i = 0; i < CLASSES.length; i ++)
+            CLASSES[i] = OTHER;
+
+        for (char separator : separators)
+        {
+            CLASSES[separator] = SEPARATOR;
+            SYMBOLS[separator] = String.valueOf(separator);
+            TYPES[separator] = Token.classify(SYMBOLS[separator], 0, 1);
+        }
+
+        CLASSES['\n']   = NEWLINE;
+        CLASSES[' ']    = SPACE;
+        CLASSES['\t']   = TAB;
+        CLASSES['"']    = QUOTE;
+        CLASSES['\'']   = QUOTE;
+    }
+
+    private final String    program;
+    private final SourceMap sourceMap;
+    private final Symbols   symbols;
+
+    private int     position;
+    private int     limit;
+    private int     first;
+    private int     resetAt     = -1;
+    private int     state;
+    private int     token       = -1;
+    private int     prevs       = -1;
+    private boolean directive;
+    private int     start;
+    private int     end;
+    private int     tokenLine;
+    private int     tokenOffset;
+    private int     tokenWhitespace;
+    private int     tokenRow;
+    private int     line        = 1;
+    private int     row         = 1;
+    private int     offset;
+    private int     whitespace;
+
+    /**
+     * @param sourceMap maps the lines of a preprocessed program back to the original files (null if it is not preprocessed).
+     */
+    public Lexer(String program, SourceMap sourceMap)
+    {
+        this(program, sourceMap, new Symbols());
+    }
+
+    /**
+     * @param symbols interns the identifiers of the program.
+     */
+    public Lexer(String program, SourceMap sourceMap, Symbols symbols)
+    {
+        this(program, sourceMap, symbols, 0, program.length(), 1);
+    }
+
+    /**
+     * Lexes the characters from 'from' to 'to', which start at output line 'row'.
+     */
+    private Lexer(String program, SourceMap sourceMap, Symbols symbols, int from, int to, int row)
+    {
+        this.program = program;
+        this.sourceMap = sourceMap;
+        this.symbols = symbols;
+        this.position = from;
+        this.limit = to;
+        this.first = row;
+        this.row = row;
+        this.line = row;
+    }
+
+    /**
+     * Lexes the program in chunks of about 'chunk' characters on 'pool'.
+     *
+     * Chunks end at line ends, where the lexer is always between tokens: comments are gone
+     * by now, and strings and '#reset' never cross a line end. What a chunk cannot know is
+     * the line count it starts at, since a '#reset' in an earlier chunk restarts it. So each
+     * chunk counts from its own output line, and its tokens up to its first '#reset' are
+     * moved once the chunks before it are done. With a source map, lines come from the map
+     * and nothing moves.
+     */
+    public static TokenBuffer lex(String program, SourceMap sourceMap, Symbols symbols, ForkJoinPool pool, int chunk)
+    {
+        List<ForkJoinTask<Lexer>>   tasks   = new ArrayList<>();
+        List<TokenBuffer>           buffers = new ArrayList<>();
+        int                         row     = 1;
+
+        for (int from = 0, to; from < program.length(); from = to)
+        {
+            int end = program.indexOf('\n', Math.min(program.length(), from + chunk) - 1);
+            to = end < 0 ? program.length() : end + 1;
+
+            final Lexer         lexer   = new Lexer(program, sourceMap, symbols, from, to, row);
+            final TokenBuffer   tokens  = new TokenBuffer(program, sourceMap, symbols);
+
+            tasks.add(pool.submit(() -> {
+                while (lexer.next(tokens));
+
+                return lexer;
+            }));
+            buffers.add(tokens);
+
+            for (int i = program.indexOf('\n', from); i >= 0 && i < to; i = program.indexOf('\n', i + 1))
+                row ++;
+        }
+
+        TokenBuffer tokens  = new TokenBuffer(program, sourceMap, symbols);
+        int         line    = 1;
+
+        for (int i = 0; i < tasks.size(); i ++)
+        {
+            Lexer       lexer   = tasks.get(i).join();
+            TokenBuffer buffer  = buffers.get(i);
+            int         shift   = sourceMap == null ? line - lexer.first : 0;
+
+            tokens.append(buffer, lexer.resetAt < 0 ? buffer.size() : lexer.resetAt, shift);
+
+            line = lexer.resetAt < 0 ? lexer.line + shift : lexer.line;
+        }
+
+        return tokens;
+    }
+
+    static int classOf(char c)
+    {
+        return c < 128 ? CLASSES[c] : OTHER;
+    }
+
+    /**
+     * @return the shared string for a separator, or null if 'c' is not one.
+     */
+    static String symbol(char c)
+    {
+        return c < 128 ? SYMBOLS[c] : null;
+    }
+
+    /**
+     * @return the tokens of the program in order.
+     */
+    public TokenBuffer lex()
+    {
+        final TokenBuffer tokens = new TokenBuffer(program, sourceMap, symbols);
+
+        while (next(tokens));
+
+        return tokens;
+    }
+
+    /**
+     * Adds the tokens up to and including the next line end to 'tokens'. A line is never
+     * split across two calls, so 'tokens' may be cleared in between.
+     *
+     * @return false once the whole program has been read.
+     */
+    public boolean next(TokenBuffer tokens)
+    {
+        final int length = limit;
+
+        while (position < length)
+        {
+            final int i = position ++;
+            char current = program.charAt(i);
+
+            switch (ACTIONS[state][classOf(current)])
+            {
+                case END:
+                    line ++;
+                    row ++;
+                    finish(tokens, i);
+                    tokens.add(Token.Type.END, i, 0, -1, -1, -1, -1);
+                    reset(tokens);
+                    offset = 0;
+                    whitespace = 0;
+                    return position < length;
+                case BLANK:
+                    whitespace ++;
+                    offset ++;
+                    finish(tokens, i);
+                    reset(tokens);
+                    break;
+                case INDENT:
+                    whitespace += 4;
+                    offset += 4;
+                    finish(tokens, i);
+                    reset(tokens);
+                    break;
+                case OPEN:
+                    begin(i, STRING);
+                    offset ++;
+                    break;
+                case DELIMIT:
+                    finish(tokens, i);
+
+                    prevs = tokens.add(TYPES[current], i, 1, line(), offset, whitespace, row);
+                    directive = current == '#';
+                    token = -1;
+                    offset ++;
+                    break;
+                case START:
+                    begin(i, WORD);
+                    offset ++;
+                    break;
+                case APPEND:
+                    offset ++;
+                    break;
+                case CLOSE:
+                    offset ++;
+
+                    if (program.charAt(i - 1) != '\\' && current == program.charAt(start))
+                    {
+                        finish(tokens, i + 1);
+                        prevs = token;
+                        directive = false;
+                        token = -1;
+                    }
+                    break;
+            }
+        }
+
+        return false;
+    }
+
+    private void begin(int i, int state)
+    {
+        this.start = i;
+        this.state = state;
+        this.tokenLine = line();
+        this.tokenOffset = offset;
+        this.tokenWhitespace = whitespace;
+        this.tokenRow = row;
+    }
+
+    /**
+     * Ends the current word or string, if any, at 'end' and adds it as a slice of the program.
+     */
+    private void finish(TokenBuffer tokens, int end)
+    {
+        if (state != NONE)
+        {
+            this.end = end;
+            token = tokens.add(Token.classify(program, start, end - start), start, end - start, tokenLine, tokenOffset, tokenWhitespace, tokenRow);
+        }
+
+        state = NONE;
+    }
+
+    /**
+     * Moves on past the token just finished. A 'reset' directly after a '#' restarts
+     * the line count and both tokens are dropped.
+     */
+    private void reset(TokenBuffer tokens)
+    {
+        if (token >= 0 && directive && end - start == 5 && program.startsWith("reset", start))
+        {
+            line = 1;
+            tokens.remove(token);
+            tokens.remove(prevs);
+
+            if (resetAt < 0)
+                resetAt = tokens.size();
+        }
+
+        prevs = token;
+        directive = false;
+        token = -1;
+    }
+
+    /**
+     * @return the line in the original file when there is a source map, so includes and removed
+     * directives do not shift it.
+     */
+    private int line()
+    {
+        return sourceMap == null ? line : sourceMap.getLine(row);
+    }
+}
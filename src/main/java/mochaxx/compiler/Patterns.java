@@ -0,0 +1,180 @@
+package mochaxx.compiler;
+
+import java.util.*;
+
+/**
+ * A set of token patterns compiled into one automaton, so a stream is matched against all of
+ * them with a single walk over its lookahead instead of one matches() call per pattern.
+ *
+ * Each pattern belongs to a rule. Patterns are added into a trie keyed by token type at each
+ * depth; compile() then turns the trie into a table of states, one per set of trie nodes that
+ * can be reached together, so the wildcards (ANY, ANY_NOT_END, ANY_NOT_SUBEND) cost nothing
+ * when matching. Any other type only matches itself, exactly as in TokenStream.matches().
+ *
+ * @param <R> the rules; they are tried in the order of their declaration.
+ */
+public class Patterns<R extends Enum<R>>
+{
+    private static final Token.Type TYPES[] = Token.Type.values();
+
+    private static class Node
+    {
+        private final Node  next[]  = new Node[TYPES.length];
+        private long        rules;
+        private long        excluded;
+    }
+
+    private static class State
+    {
+        private final State next[]  = new State[TYPES.length];
+        private long        rules;
+        private long        excluded;
+    }
+
+    private final R     rules[];
+    private final Node  root        = new Node();
+    private State       start;
+
+    public Patterns(Class<R> rules)
+    {
+        this.rules = rules.getEnumConstants();
+
+        if (this.rules.length > 64)
+            throw new IllegalArgumentException("more than 64 rules in " + rules.getSimpleName() + ".");
+    }
+
+    /**
+     * Makes 'rule' match when the tokens ahead are of 'types'.
+     */
+    public Patterns<R> add(R rule, Token.Type ...types)
+    {
+        node(types).rules |= 1L << rule.ordinal();
+        start = null;
+
+        return this;
+    }
+
+    /**
+     * Keeps 'rule' from matching when the tokens ahead are of 'types', whatever else matches.
+     */
+    public Patterns<R> exclude(R rule, Token.Type ...types)
+    {
+        node(types).excluded |= 1L << rule.ordinal();
+        start = null;
+
+        return this;
+    }
+
+    private Node node(Token.Type types[])
+    {
+        Node node = root;
+
+        for (Token.Type type : types)
+        {
+            if (node.next[type.ordinal()] == null)
+                node.next[type.ordinal()] = new Node();
+
+            node = node.next[type.ordinal()];
+        }
+
+        return node;
+    }
+
+    /**
+     * Builds the states. Patterns can not be matched before this is done, and the patterns
+     * are safe to share between threads after it.
+     */
+    public Patterns<R> compile()
+    {
+        Map<Set<Node>, State>   states  = new HashMap<>();
+        Deque<Set<Node>>        pending = new ArrayDeque<>();
+
+        start = state(Collections.singleton(root), states, pending);
+
+        while (!pending.isEmpty())
+        {
+            Set<Node>   nodes   = pending.poll();
+            State       state   = states.get(nodes);
+
+            for (Token.Type type : TYPES)
+            {
+                Set<Node> next = new HashSet<>();
+
+                for (Node node : nodes)
+                {
+                    add(next, node.next[type.ordinal()]);
+                    add(next, node.next[Token.Type.ANY.ordinal()]);
+
+                    if (type != Token.Type.END)
+                        add(next, node.next[Token.Type.ANY_NOT_END.ordinal()]);
+
+                    if (type != Token.Type.END && type != Token.Type.SUBTRACTION)
+                        add(next, node.next[Token.Type.ANY_NOT_SUBEND.ordinal()]);
+                }
+
+                if (!next.isEmpty())
+                    state.next[type.ordinal()] = state(next, states, pending);
+            }
+        }
+
+        return this;
+    }
+
+    private static void add(Set<Node> nodes, Node node)
+    {
+        if (node != null)
+            nodes.add(node);
+    }
+
+    private static State state(Set<Node> nodes, Map<Set<Node>, State> states, Deque<Set<Node>> pending)
+    {
+        State state = states.get(nodes);
+
+        if (state == null)
+        {
+            states.put(nodes, state = new State());
+            pending.add(nodes);
+
+            for (Node node : nodes)
+            {
+                state.rules     |= node.rules;
+                state.excluded  |= node.excluded;
+            }
+        }
+
+        return state;
+    }
+
+    /**
+     * @return the rules with a pattern that matches the tokens ahead of 'in', one bit per rule.
+     */
+    public long match(TokenStream in)
+    {
+        if (start == null)
+            throw new IllegalStateException("patterns are not compiled.");
+
+        long    rules       = 0;
+        long    excluded    = 0;
+        State   state       = start;
+
+        for (int i = 0; state != null; i ++)
+        {
+            rules       |= state.rules;
+            excluded    |= state.excluded;
+
+            Token token = in.peek(i);
+
+            state = token == null ? null : state.next[token.getType().ordinal()];
+        }
+
+        return rules & ~excluded;
+    }
+
+    /**
+     * @return the first rule in 'rules', or 'none' if there is none.
+     */
+    public R first(long rules, R none)
+    {
+        return rules == 0 ? none : this.rules[Long.numberOfTrailingZeros(rules)];
+    }
+}
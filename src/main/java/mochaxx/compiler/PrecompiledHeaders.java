@@ -0,0 +1,173 @@
+package mochaxx.compiler;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A directory of preprocessed include files that outlives the VM.
+ *
+ * Each file holds the expanded text of one include and its source map, the define table
+ * it left behind and the files it pulled in. Files are named by a hash of the include path,
+ * its content hash and the incoming define table, so a later compile with the same headers
+ * restores them instead of running PreprocessedProgram again.
+ */
+public class PrecompiledHeaders
+{
+    private static final int    MAGIC       = 0x4D504348;
+    private static final int    VERSION     = 3;
+    public static final String  EXTENSION   = "mpch";
+
+    private final File          directory;
+    private final AtomicLong    loaded  = new AtomicLong();
+    private final AtomicLong    written = new AtomicLong();
+
+    public PrecompiledHeaders(File directory)
+    {
+        this.directory = directory;
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * @return the stored expansion, or null if there is none or it cannot be read.
+     */
+    public IncludeCache.Expansion load(String path, String hash, Map<String, String> defines)
+    {
+        File file = file(path, hash, defines);
+
+        if (!file.isFile())
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return null;
+
+            if (!readString(in).equals(path) || !readString(in).equals(hash) || !readDefines(in).equals(defines))
+                return null;
+
+            String                  program         = readString(in);
+            SourceMap               sourceMap       = SourceMap.read(in);
+            Map<String, String>     after           = readDefines(in);
+            List<DynamicLibraryLoader.Dependency> dependencies = new ArrayList<>();
+
+            for (int i = in.readInt(); i > 0; i --)
+                dependencies.add(new DynamicLibraryLoader.Dependency(readString(in), readString(in)));
+
+            loaded.incrementAndGet();
+
+            return new IncludeCache.Expansion(program, sourceMap, after, dependencies);
+        } catch (IOException | RuntimeException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the expansion to a temporary file and moves it into place, so concurrent
+     * compiles never see half a header. Failing to write only costs the next compile time.
+     */
+    public void store(String path, String hash, Map<String, String> defines, IncludeCache.Expansion expansion)
+    {
+        File file       = file(path, hash, defines);
+        File temporary  = null;
+
+        try {
+            Files.createDirectories(directory.toPath());
+
+            temporary = File.createTempFile("header", ".tmp", directory);
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary))))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, path);
+                writeString(out, hash);
+                writeDefines(out, defines);
+                writeString(out, expansion.getProgram());
+                expansion.getSourceMap().write(out);
+                writeDefines(out, expansion.getDefines());
+                out.writeInt(expansion.getDependencies().size());
+
+                for (DynamicLibraryLoader.Dependency dependency : expansion.getDependencies())
+                {
+                    writeString(out, dependency.getPath());
+                    writeString(out, dependency.getHash());
+                }
+            }
+
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            written.incrementAndGet();
+        } catch (IOException e)
+        {
+            if (temporary != null)
+                temporary.delete();
+        }
+    }
+
+    public long getLoaded()
+    {
+        return loaded.get();
+    }
+
+    public long getWritten()
+    {
+        return written.get();
+    }
+
+    private File file(String path, String hash, Map<String, String> defines)
+    {
+        StringBuilder key = new StringBuilder(path).append('\0').append(hash);
+
+        for (Map.Entry<String, String> define : new TreeMap<>(defines).entrySet())
+            key.append('\0').append(define.getKey()).append('=').append(define.getValue());
+
+        return new File(directory, IncludeCache.hash(ByteBuffer.wrap(key.toString().getBytes(StandardCharsets.UTF_8))) + "." + EXTENSION);
+    }
+
+    private static Map<String, String> readDefines(DataInputStream in) throws IOException
+    {
+        Map<String, String> defines = new HashMap<>();
+
+        for (int i = in.readInt(); i > 0; i --)
+            defines.put(readString(in), readString(in));
+
+        return defines;
+    }
+
+    private static void writeDefines(DataOutputStream out, Map<String, String> defines) throws IOException
+    {
+        out.writeInt(defines.size());
+
+        for (Map.Entry<String, String> define : defines.entrySet())
+        {
+            writeString(out, define.getKey());
+            writeString(out, define.getValue());
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        byte bytes[] = new byte[in.readInt()];
+        in.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException
+    {
+        byte bytes[] = string.getBytes(StandardCharsets.UTF_8);
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -4,37 +4,52 @@ import mochaxx.Tuple;
 
 import java.io.File;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.Stack;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class PreprocessedProgram
 {
-    private String finalProgram;
-    private File   myFile;
+    private static final Pattern INCLUDE = Pattern.compile("\\#\\b(include)\\b\\s*(?:\\<(\\w(?:\\w|\\.|\\-|\\/)*)\\>|\"(\\w(?:\\w|\\.|\\-|\\/)*)\")");
+
+    private String      finalProgram;
+    private SourceMap   sourceMap;
+    private File        myFile;
 
     public PreprocessedProgram(String program, File location, DynamicLibraryLoader dynamicLibraryLoader)
     {
-        this(program, location, dynamicLibraryLoader, new HashMap<>());
+        this(Comments.strip(program), location, dynamicLibraryLoader, new HashMap<>());
     }
 
+    /**
+     * @param program text without comments; the loader strips included files when it first reads them.
+     */
     public PreprocessedProgram(String program, File location, DynamicLibraryLoader dynamicLibraryLoader, Map<String, String> master)
     {
         finalProgram = program;
-        program = removeComments(program);
-        program = checkIncludes(program, dynamicLibraryLoader, master);
+
+        SourceMap origins = new SourceMap();
+        program = checkIncludes(program, location.getPath(), dynamicLibraryLoader, master, origins);
+
         String lines[] = program.split("\n");
-        program = checkIfndIfndefs(lines, -1, master, true).getI();
+        StringBuilder test = new StringBuilder(program.length());
+        sourceMap = new SourceMap();
+        checkIfndIfndefs(lines, origins, -1, master, true, test, sourceMap);
         this.myFile = location;
 
-        finalProgram = program;
+        finalProgram = test.toString();
     }
 
-    private Tuple<String, Integer> checkIfndIfndefs(final String lines[], final int start, Map<String, String> master, boolean allow)
+    /**
+     * Writes the lines that survive the conditionals to 'test', and where each of them
+     * came from to 'map'. Directives and disabled lines are dropped, not padded.
+     *
+     * @return the index of the '#endif' that closed this block, or -1 at the end of the program.
+     */
+    private int checkIfndIfndefs(final String lines[], final SourceMap origins, final int start, Map<String, String> master, boolean allow, StringBuilder test, SourceMap map)
     {
-        String test = "";
-
         Map<String, String> defines = master;
 
         for (int i = start + 1; i < lines.length; i ++)
@@ -45,25 +60,21 @@ public class PreprocessedProgram
             {
                 if (allow)
                     defines.put(line.replaceAll("\\#(define)\\s*", ""), "");
-                test += "\n";
             }
             else if (line.matches("\\#(define)\\s+[A-z](\\w*)*"))
             {
                 if (allow)
                 defines.put(line.replaceAll("\\#(define)\\s*", ""), "");
-                test += "\n";
             } else if (line.matches("\\#(undefine)\\s+[A-z](\\w*)*"))
             {
                 if (allow)
                 {
-                    if (!defines.containsKey(line.replaceAll("\\#(define)\\s*", "")))
+                    if (!defines.containsKey(line.replaceAll("\\#(undefine)\\s*", "")))
                     {
-                        System.err.println("'" + line.replaceAll("\\#(define)\\s*", "") + "' cannot be undefined.");
-                        System.exit(0);
+                        throw new CompileError("'" + line.replaceAll("\\#(undefine)\\s*", "") + "' cannot be undefined.");
                     }
-                    defines.remove(line.replaceAll("\\#(define)\\s*", ""));
+                    defines.remove(line.replaceAll("\\#(undefine)\\s*", ""));
                 }
-                test += "\n";
             } else if (line.matches("\\#(define)(\\s+[A-z](\\w*)*\\s+(\\w*)*)"))
             {
                 if (allow)
@@ -74,132 +85,219 @@ public class PreprocessedProgram
 
                     defines.put(define[0], define[1]);
                 }
-                test += "\n";
+            } else if (line.matches("\\#(pragma)\\s+(once)\\s*"))
+            {
+                continue;
             } else if (line.matches("\\#(ifdef)\\s+([A-z](\\w*)*)"))
             {
                 String if_reason = line.replaceAll("\\#(ifdef)\\s+", "");
-                Tuple<String, Integer> if_case = getAllBetweenIfs(lines, i, defines.containsKey(if_reason), defines);
-                test += if_case.getI();
-                i = if_case.getJ();
+                i = getAllBetweenIfs(lines, origins, i, allow && defines.containsKey(if_reason), defines, test, map);
             } else if (line.matches("\\#(ifndef)\\s+([A-z](\\w*)*)"))
             {
                 String if_reason = line.replaceAll("\\#(ifndef)\\s+", "");
-                Tuple<String, Integer> if_case = getAllBetweenIfs(lines, i, !defines.containsKey(if_reason), defines);
-                test += if_case.getI();
-                i = if_case.getJ();
+                i = getAllBetweenIfs(lines, origins, i, allow && !defines.containsKey(if_reason), defines, test, map);
             } else if (line.matches("\\#(endif)"))
             {
                 if (i == 0)
                 {
-                    System.err.println("No if case for endif.");
-                    System.exit(0);
+                    throw new CompileError("No if case for endif.");
                 }
-                return new Tuple<>(test + "\n", i);
-            } else {
-                String adjusted = line;
-
-                for (String def : defines.keySet())
-                    adjusted = adjusted.replaceAll("\\b(" + def + ")\\b", defines.get(def));
-
-                test += adjusted + "\n";
+                return i;
+            } else if (allow)
+            {
+                test.append(substitute(line, defines)).append('\n');
+                map.add(origins.getFile(i + 1), origins.getLine(i + 1));
             }
         }
 
-        return new Tuple<>(test, -1);
+        return -1;
     }
 
-    private Tuple<String, Integer> getAllBetweenIfs(final String[] lines, int startIndex, boolean add, Map<String, String> master)
+    /**
+     * Replaces every defined identifier in one scan over the line. Each identifier is
+     * looked up in the live define table, so '#define' and '#undefine' take effect on
+     * the next line without rebuilding anything.
+     */
+    private static String substitute(final String line, Map<String, String> defines)
     {
-        String betweenIfs = "";
+        if (defines.isEmpty())
+            return line;
 
-        Tuple<String, Integer> text = checkIfndIfndefs(lines, startIndex, master, add);
+        StringBuilder adjusted = null;
+        int last = 0;
+        int i = 0;
 
-        if (text.getJ() == -1)
+        while (i < line.length())
         {
-            System.err.println("No endif found.");
-            System.exit(0);
-        }
+            if (!isIdentifierPart(line.charAt(i)))
+            {
+                i ++;
+                continue;
+            }
+
+            int start = i;
 
-        if (add) return text;
+            while (i < line.length() && isIdentifierPart(line.charAt(i)))
+                i ++;
 
-        String l[] = text.getI().split("\n");
+            String value = resolve(line.substring(start, i), defines);
 
-        for (String line : l)
-            betweenIfs += "\n";
+            if (value != null)
+            {
+                if (adjusted == null)
+                    adjusted = new StringBuilder(line.length());
+
+                adjusted.append(line, last, start).append(value);
+                last = i;
+            }
+        }
 
-        return new Tuple<>(betweenIfs, text.getJ());
+        if (adjusted == null)
+            return line;
+
+        return adjusted.append(line, last, line.length()).toString();
     }
 
-    private String checkIncludes(final String control, DynamicLibraryLoader dynamicLibraryLoader, Map<String, String> master)
+    /**
+     * @return the value of a define, following defines whose value names another define.
+     */
+    private static String resolve(String identifier, Map<String, String> defines)
     {
-        String test = control;
+        String value = defines.get(identifier);
 
-        String internal_include_regex = "\\#\\b(include)\\b\\s*\\<\\w(\\w|\\.|\\-|\\/)*\\>";
-        String external_include_regex = "\\#\\b(include)\\b\\s*\"\\w(\\w|\\.|\\-|\\/)*\"";
+        for (int i = 0; value != null && i < defines.size() && defines.containsKey(value); i ++)
+            value = defines.get(value);
 
-        Matcher internal_include = Pattern.compile(internal_include_regex).matcher(test);
+        return value;
+    }
 
-        Stack<String> internals = new Stack<>();
+    private static boolean isIdentifierPart(char c)
+    {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+
+    private int getAllBetweenIfs(final String[] lines, final SourceMap origins, int startIndex, boolean add, Map<String, String> master, StringBuilder test, SourceMap map)
+    {
+        int end = checkIfndIfndefs(lines, origins, startIndex, master, add, test, map);
 
-        while (internal_include.find())
+        if (end == -1)
         {
-            int start   = internal_include.start();
-            int end     = internal_include.end();
+            throw new CompileError("No endif found.");
+        }
 
-            String A = test.substring(0, start);
-            String B = test.substring(end, test.length());
+        return end;
+    }
 
-            String d = internal_include.group();
-            d        = d.substring(d.indexOf("<") + 1, d.indexOf(">"));
+    /**
+     * Expands every include in one pass over the text. Library includes are spliced in
+     * raw and scanned in place, file includes arrive fully preprocessed from the loader.
+     * The file and line every output line starts on is added to 'origins'.
+     */
+    private String checkIncludes(final String control, String path, DynamicLibraryLoader dynamicLibraryLoader, Map<String, String> master, SourceMap origins)
+    {
+        StringBuilder test = new StringBuilder(control.length());
 
-            String c = dynamicLibraryLoader.get(d);
+        expandIncludes(control, path, dynamicLibraryLoader, master, test, origins, new HashSet<>());
 
-            test = A + c + B;
-            internal_include = Pattern.compile(internal_include_regex).matcher(test);
-        }
+        return test.toString();
+    }
 
-        Matcher external_include = Pattern.compile(external_include_regex).matcher(test);
+    private void expandIncludes(final String control, String path, DynamicLibraryLoader dynamicLibraryLoader, Map<String, String> master, StringBuilder test, SourceMap origins, Set<String> expanding)
+    {
+        Matcher include = INCLUDE.matcher(control);
+        int     last    = 0;
+        int     line    = 1;
 
-        while (external_include.find())
+        while (include.find())
         {
-            int start   = external_include.start();
-            int end     = external_include.end();
+            line = append(control, last, include.start(), path, line, test, origins);
+            line = line + count(control, include.start(), include.end());
+            last = include.end();
 
-            String A = test.substring(0, start);
-            String B = test.substring(end, test.length());
+            String internal = include.group(2);
 
-            String d = external_include.group();
-            d        = d.substring(d.indexOf('"') + 1, d.lastIndexOf('"'));
+            if (internal != null)
+            {
+                if (!expanding.add(internal))
+                    throw new CompileError("recursive include '<" + internal + ">'.");
 
-            Tuple<File, String> file = dynamicLibraryLoader.loadFile(d);
-            String c = new PreprocessedProgram(file.getJ(), file.getI(), dynamicLibraryLoader, master).getFinalProgram();
+                String library = dynamicLibraryLoader.library(internal, master);
+                expandIncludes(library, DynamicLibraryLoader.libraryPath(internal), dynamicLibraryLoader, master, test, origins, expanding);
 
-            test = A + c + B;
+                expanding.remove(internal);
+            }
+            else
+            {
+                Tuple<String, SourceMap> expansion = dynamicLibraryLoader.include(include.group(3), master);
+                String program = expansion.getI();
+                int from = 0;
 
-            external_include = Pattern.compile(external_include_regex).matcher(test);
+                for (int output = 1; from < program.length(); output ++)
+                {
+                    int to = program.indexOf('\n', from);
+                    to = to < 0 ? program.length() : to + 1;
+
+                    if (isLineStart(test))
+                        origins.add(expansion.getJ().getFile(output), expansion.getJ().getLine(output));
+
+                    test.append(program, from, to);
+                    from = to;
+                }
+            }
         }
 
-        return test;
+        append(control, last, control.length(), path, line, test, origins);
     }
 
-    private String removeComments(final String control)
+    /**
+     * Appends part of a file, mapping every output line that starts inside it.
+     *
+     * @return the line of the file the text ended on.
+     */
+    private static int append(String control, int from, int to, String path, int line, StringBuilder test, SourceMap origins)
     {
-        String test = "";
+        while (from < to)
+        {
+            int end = control.indexOf('\n', from);
+            end = end < 0 || end >= to ? to : end + 1;
 
-        String lines[] = control.split("\n");
+            if (isLineStart(test))
+                origins.add(path, line);
 
-        for (String line : lines)
-        {
-            String adjusted = line.replaceAll("\\/\\/.*", "").replaceAll("\\/\\*\\*.*\\*\\*\\/", "").replaceAll("\\/\\*\\*.*", "").replaceAll(".*\\*\\*\\/", "");
+            test.append(control, from, end);
 
-            test += adjusted + "\n";
+            if (control.charAt(end - 1) == '\n')
+                line ++;
+
+            from = end;
         }
 
-        return test;
+        return line;
+    }
+
+    private static boolean isLineStart(StringBuilder test)
+    {
+        return test.length() == 0 || test.charAt(test.length() - 1) == '\n';
+    }
+
+    private static int count(String control, int from, int to)
+    {
+        int lines = 0;
+
+        for (int i = from; i < to; i ++)
+            if (control.charAt(i) == '\n')
+                lines ++;
+
+        return lines;
     }
 
     public String getFinalProgram()
     {
         return finalProgram;
     }
+
+    public SourceMap getSourceMap()
+    {
+        return sourceMap;
+    }
 }
\ No newline at end of file
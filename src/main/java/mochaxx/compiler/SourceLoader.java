@@ -0,0 +1,220 @@
+package mochaxx.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared source loading for every front-end entry point.
+ *
+ * Files are read through a single NIO buffer (memory-mapped above MAP_THRESHOLD,
+ * a direct channel read below it) and decoded once, instead of being rebuilt line by line.
+ */
+public class SourceLoader
+{
+    public static final long        MAP_THRESHOLD   = 64 * 1024;
+
+    private static final AtomicLong bytesRead       = new AtomicLong();
+    private static final AtomicLong readTime        = new AtomicLong();
+
+    public static String read(File file) throws IOException
+    {
+        return decode(readBytes(file));
+    }
+
+    public static String read(InputStream stream) throws IOException
+    {
+        return decode(readBytes(stream));
+    }
+
+    public static ByteBuffer readBytes(File file) throws IOException
+    {
+        long start = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            ByteBuffer buffer;
+
+            if (size >= MAP_THRESHOLD)
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            else
+            {
+                buffer = ByteBuffer.allocate((int) size);
+
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0);
+
+                buffer.flip();
+            }
+
+            bytesRead.addAndGet(buffer.remaining());
+
+            return buffer;
+        } finally {
+            readTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    public static ByteBuffer readBytes(InputStream stream) throws IOException
+    {
+        long start = System.nanoTime();
+
+        try (ReadableByteChannel channel = Channels.newChannel(stream))
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+            while (channel.read(buffer) >= 0)
+            {
+                if (buffer.hasRemaining())
+                    continue;
+
+                ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+
+            buffer.flip();
+            bytesRead.addAndGet(buffer.remaining());
+
+            return buffer;
+        } finally {
+            readTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Decodes UTF-8 source and normalizes it the same way the old readLine() loops did:
+     * every line ends in '\n' and '\r' / "\r\n" terminators are folded into '\n'.
+     */
+    public static String decode(ByteBuffer buffer) throws CharacterCodingException
+    {
+        String ascii = ascii(buffer);
+
+        if (ascii != null)
+            return ascii;
+
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        return normalize(decoder.decode(buffer.duplicate()).toString());
+    }
+
+    /**
+     * The fast path for source that is all ASCII, which is nearly all of it. The result is a
+     * Latin-1 string and there is no decoder. On JDK 9 and later, with compact strings, the
+     * VM keeps such a string at one byte a character; on JDK 8, which the build targets, it
+     * is widened to UTF-16 like any other, and the decoder is all this saves.
+     *
+     * A heap buffer whose lines all end in '\n' is decoded straight from its backing array,
+     * so the string is the only copy. Anything else, a mapped file or '\r' line ends to fold,
+     * makes two copies: the buffer into an array, normalizing line ends on the way, and that
+     * array into the string.
+     *
+     * @return null at the first byte outside ASCII, so the caller decodes the whole source.
+     */
+    private static String ascii(ByteBuffer buffer)
+    {
+        int size = buffer.remaining();
+
+        if (buffer.hasArray())
+        {
+            byte    array[] = buffer.array();
+            int     from    = buffer.arrayOffset() + buffer.position();
+            boolean clean   = size == 0 || array[from + size - 1] == '\n';
+
+            for (int i = from; i < from + size; i ++)
+            {
+                if (array[i] < 0)
+                    return null;
+
+                if (array[i] == '\r')
+                    clean = false;
+            }
+
+            if (clean)
+                return new String(array, from, size, StandardCharsets.ISO_8859_1);
+        }
+
+        ByteBuffer  in      = buffer.duplicate();
+        byte        bytes[] = new byte[size + 1];
+        int         length  = 0;
+
+        in.get(bytes, 0, size);
+
+        for (int i = 0; i < size; i ++)
+        {
+            byte b = bytes[i];
+
+            if (b < 0)
+                return null;
+
+            if (b == '\r')
+            {
+                b = '\n';
+
+                if (i + 1 < size && bytes[i + 1] == '\n')
+                    i ++;
+            }
+
+            bytes[length ++] = b;
+        }
+
+        if (length > 0 && bytes[length - 1] != '\n')
+            bytes[length ++] = '\n';
+
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    public static String normalize(String source)
+    {
+        if (source.length() == 0)
+            return source;
+
+        if (source.indexOf('\r') < 0)
+            return source.charAt(source.length() - 1) == '\n' ? source : source + "\n";
+
+        StringBuilder builder = new StringBuilder(source.length() + 1);
+
+        for (int i = 0; i < source.length(); i ++)
+        {
+            char c = source.charAt(i);
+
+            if (c == '\r')
+            {
+                builder.append('\n');
+
+                if (i + 1 < source.length() && source.charAt(i + 1) == '\n')
+                    i ++;
+            }
+            else
+                builder.append(c);
+        }
+
+        if (builder.charAt(builder.length() - 1) != '\n')
+            builder.append('\n');
+
+        return builder.toString();
+    }
+
+    public static long getBytesRead()
+    {
+        return bytesRead.get();
+    }
+
+    public static long getReadTime()
+    {
+        return readTime.get();
+    }
+}
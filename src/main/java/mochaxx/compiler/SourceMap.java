@@ -0,0 +1,151 @@
+package mochaxx.compiler;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Maps the lines of preprocessed text back to the file and line they came from.
+ *
+ * Consecutive output lines that come from consecutive lines of one file share a range,
+ * so a file without directives costs a single entry however long it is. A range is three
+ * ints: its first output line, the index of its file and the original line it starts at.
+ */
+public class SourceMap
+{
+    private final List<String>          files   = new ArrayList<>();
+    private final Map<String, Integer>  indices = new HashMap<>();
+    private int                         start[] = new int[8];
+    private int                         file[]  = new int[8];
+    private int                         line[]  = new int[8];
+    private int                         ranges;
+    private int                         lines;
+
+    /**
+     * Maps the next output line to a line of a file.
+     */
+    public void add(String path, int original)
+    {
+        Integer index = indices.get(path);
+
+        if (index == null)
+        {
+            index = files.size();
+            files.add(path);
+            indices.put(path, index);
+        }
+
+        lines ++;
+
+        if (ranges > 0 && file[ranges - 1] == index && line[ranges - 1] + (lines - start[ranges - 1]) == original)
+            return;
+
+        if (ranges == start.length)
+        {
+            start   = Arrays.copyOf(start, ranges * 2);
+            file    = Arrays.copyOf(file, ranges * 2);
+            line    = Arrays.copyOf(line, ranges * 2);
+        }
+
+        start[ranges]   = lines;
+        file[ranges]    = index;
+        line[ranges]    = original;
+        ranges ++;
+    }
+
+    /**
+     * @return the line in the original file, or the output line itself if nothing maps to it.
+     */
+    public int getLine(int output)
+    {
+        int range = find(output);
+
+        return range < 0 ? output : line[range] + (output - start[range]);
+    }
+
+    /**
+     * @return the file the output line came from, or null if nothing maps to it.
+     */
+    public String getFile(int output)
+    {
+        int range = find(output);
+
+        return range < 0 ? null : files.get(file[range]);
+    }
+
+    /**
+     * @return the number of output lines mapped.
+     */
+    public int size()
+    {
+        return lines;
+    }
+
+    private int find(int output)
+    {
+        if (output < 1 || output > lines)
+            return -1;
+
+        int low     = 0;
+        int high    = ranges - 1;
+
+        while (low < high)
+        {
+            int middle = (low + high + 1) >>> 1;
+
+            if (start[middle] <= output)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+
+        return low;
+    }
+
+    public void write(DataOutput out) throws IOException
+    {
+        out.writeInt(files.size());
+
+        for (String path : files)
+            out.writeUTF(path);
+
+        out.writeInt(lines);
+        out.writeInt(ranges);
+
+        for (int i = 0; i < ranges; i ++)
+        {
+            out.writeInt(start[i]);
+            out.writeInt(file[i]);
+            out.writeInt(line[i]);
+        }
+    }
+
+    public static SourceMap read(DataInput in) throws IOException
+    {
+        SourceMap map = new SourceMap();
+
+        for (int i = in.readInt(); i > 0; i --)
+        {
+            String path = in.readUTF();
+
+            map.indices.put(path, map.files.size());
+            map.files.add(path);
+        }
+
+        map.lines   = in.readInt();
+        map.ranges  = in.readInt();
+        map.start   = new int[Math.max(1, map.ranges)];
+        map.file    = new int[map.start.length];
+        map.line    = new int[map.start.length];
+
+        for (int i = 0; i < map.ranges; i ++)
+        {
+            map.start[i]    = in.readInt();
+            map.file[i]     = in.readInt();
+            map.line[i]     = in.readInt();
+        }
+
+        return map;
+    }
+}
@@ -0,0 +1,133 @@
+package mochaxx.compiler;
+
+import java.util.Arrays;
+
+/**
+ * Gives every distinct name of a program a dense int, so later stages compare and index
+ * names by number instead of hashing and comparing strings.
+ *
+ * The primitive type names are interned first, so their symbols are their index in
+ * PRIMITIVES. Names are looked up straight from a slice of the program; a string is only
+ * made the first time a name is seen.
+ */
+public class Symbols
+{
+    public static final String  PRIMITIVES[]    = {
+            "char", "uint8", "int8", "bool", "boolean",
+            "short", "int16", "uint16",
+            "int", "uint", "int32", "uint32",
+            "long", "int64", "uint64",
+            "float", "double",
+            "void", "MemObject", "operator"
+    };
+
+    /**
+     * The size in bytes of each primitive before VOID.
+     */
+    public static final int     SIZES[]         = {
+            1, 1, 1, 1, 1,
+            2, 2, 2,
+            4, 4, 4, 4,
+            8, 8, 8,
+            4, 8
+    };
+
+    public static final int     INT             = 8;
+    public static final int     VOID            = 17;
+    public static final int     MEMOBJECT       = 18;
+    public static final int     OPERATOR        = 19;
+
+    private String  names[] = new String[64];
+    private int     hashes[] = new int[64];
+    private int     table[] = new int[128];
+    private int     size;
+
+    public Symbols()
+    {
+        for (String primitive : PRIMITIVES)
+            intern(primitive);
+    }
+
+    public int intern(String name)
+    {
+        return intern(name, 0, name.length());
+    }
+
+    /**
+     * @return the symbol of the 'length' characters of 'source' from 'start'.
+     */
+    public int intern(String source, int start, int length)
+    {
+        int hash = 0;
+
+        for (int i = start; i < start + length; i ++)
+            hash = 31 * hash + source.charAt(i);
+
+        int mask = table.length - 1;
+
+        for (int slot = slot(hash, mask); ; slot = (slot + 1) & mask)
+        {
+            int symbol = table[slot] - 1;
+
+            if (symbol < 0)
+            {
+                symbol = add(source.substring(start, start + length), hash);
+                table[slot] = symbol + 1;
+
+                if (size * 2 > table.length)
+                    rehash();
+
+                return symbol;
+            }
+
+            if (hashes[symbol] == hash && names[symbol].length() == length && source.regionMatches(start, names[symbol], 0, length))
+                return symbol;
+        }
+    }
+
+    public String name(int symbol)
+    {
+        return names[symbol];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    private static int slot(int hash, int mask)
+    {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private int add(String name, int hash)
+    {
+        if (size == names.length)
+        {
+            names   = Arrays.copyOf(names, size * 2);
+            hashes  = Arrays.copyOf(hashes, size * 2);
+        }
+
+        names[size]     = name;
+        hashes[size]    = hash;
+
+        return size ++;
+    }
+
+    private void rehash()
+    {
+        table = new int[table.length * 2];
+
+        int mask = table.length - 1;
+
+        for (int symbol = 0; symbol < size; symbol ++)
+        {
+            int slot = slot(hashes[symbol], mask);
+
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+
+            table[slot] = symbol + 1;
+        }
+    }
+}
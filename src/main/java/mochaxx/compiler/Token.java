@@ -12,10 +12,9 @@ public class Token implements Iterable<Token>
         {
             if (type.equals(Type.CLASS_DECLARATION) && !modifier.equals(Modifier.FINAL))
             {
-                System.err.println("classes can not have modifier: " + modifier);
-                System.err.println("\tclass: " + children.iterator().next().data);
-                System.err.println("\tinfostr: " + infoString());
-                System.exit(0);
+                throw new CompileError("classes can not have modifier: " + modifier
+                        + "\n\tclass: " + children.iterator().next()
+                        + "\n\tinfostr: " + infoString());
             }
 //            else if (type.equals(Type.METHOD_CALL) && modifier.equals(Modifier.POINTER))
 //            {
@@ -31,11 +30,12 @@ public class Token implements Iterable<Token>
 
     public String infoString()
     {
-        return "line: " + line + " offset: " + offset;
+        return (file == null ? "" : "file: " + file + " ") + "line: " + line + " offset: " + offset;
     }
 
     public Token dataFrom(Token returntp)
     {
+        file = returntp.file;
         line = returntp.line;
         offset = returntp.offset;
         whitespace = returntp.whitespace;
@@ -61,6 +61,9 @@ public class Token implements Iterable<Token>
     public Token setData(String data)
     {
         this.data = data;
+        this.source = null;
+        this.symbol = -1;
+        this.value = null;
 
         return this;
     }
@@ -86,6 +89,26 @@ public class Token implements Iterable<Token>
         return this;
     }
 
+    /**
+     * @return a deep copy of this token and its children, with the symbols of identifiers
+     * interned again in 'symbols'.
+     */
+    public Token copy(Symbols symbols)
+    {
+        Token copy = new Token(type, line, offset, whitespace);
+
+        copy.data       = toString();
+        copy.file       = file;
+        copy.symbol     = symbol < 0 ? -1 : symbols.intern(copy.data);
+        copy.value      = value;
+        copy.modifiers.addAll(modifiers);
+
+        for (Token child : getChildren())
+            copy.children.add(child.copy(symbols).setParent(copy));
+
+        return copy;
+    }
+
     public Token clean()
     {
         List<Token> children = new ArrayList<>();
@@ -237,9 +260,67 @@ public class Token implements Iterable<Token>
         ;
     }
 
+    /**
+     * The keywords and the type each lexes to, laid out by slot() in the smallest power of two
+     * table where no two of them collide, so a lookup is one hash and one comparison.
+     */
+    private static final String KEYWORDS[];
+    private static final Type   KEYWORD_TYPES[];
+
+    static
+    {
+        final String keywords[] = {"if", "else", "struct", "try", "catch", "goto", "in", "for", "namespace", "package", "typedef", "op", "function", "template", "fun", "new", "class", "static", "ref", "reference", "ptr", "native", "public", "private", "protected", "const", "final", "extend", "extends", "header", "while", "foreach", "then", "return"};
+        final Type types[] = {IF, ELSE, CLASS, TRY, CATCH, GOTO, IN, FOR, NAMESPACE, NAMESPACE, TYPEDEF, KEYWORD, KEYWORD, TEMPLATE, KEYWORD, NEW, CLASS, KEYWORD, KEYWORD, KEYWORD, KEYWORD, KEYWORD, KEYWORD, KEYWORD, KEYWORD, KEYWORD, KEYWORD, KEYWORD, EXTEND, KEYWORD, KEYWORD, FOREACH, KEYWORD, RETURN};
+
+        int size = Integer.highestOneBit(keywords.length) << 1;
+        String table[];
+
+        search:
+        while (true)
+        {
+            table = new String[size];
+
+            for (String keyword : keywords)
+            {
+                int slot = slot(keyword.hashCode(), size - 1);
+
+                if (table[slot] != null)
+                {
+                    size <<= 1;
+                    continue search;
+                }
+
+                table[slot] = keyword;
+            }
+
+            break;
+        }
+
+        KEYWORDS = table;
+        KEYWORD_TYPES = new Type[size];
+
+        for (int i = 0; i < keywords.length; i ++)
+            KEYWORD_TYPES[slot(keywords[i].hashCode(), size - 1)] = types[i];
+    }
+
     public Type type;
-    public String data;
+    private String data;
+    private String source;
+    private int  start, length;
     public int  line = -1, offset = -1, whitespace = -1;
+    /**
+     * The file 'line' is a line of, null when it is not known.
+     */
+    public String file;
+    /**
+     * The symbol of an identifier as it came out of the lexer, -1 for anything else.
+     */
+    public int  symbol = -1;
+    /**
+     * The value of a number literal: a Long, or a Float / Double for a floating literal.
+     * Null for anything else, or for a literal that does not fit its type.
+     */
+    public Number value;
     public List<Token> children;
     public Token parent;
     public Set<Modifier> modifiers;
@@ -271,16 +352,42 @@ public class Token implements Iterable<Token>
         this.modifiers = new LinkedHashSet<>();
     }
 
+    /**
+     * A token whose text is 'length' characters of 'source' from 'start'. The text is only
+     * copied into its own string the first time something asks for it.
+     */
+    public Token(Type type, String source, int start, int length, int line, int offset, int whitespace)
+    {
+        this((String) null, line, offset, whitespace);
+        this.type = type;
+        this.source = source;
+        this.start = start;
+        this.length = length;
+    }
+
     public Token append(String data)
     {
-        this.data += data;
+        this.data = toString() + data;
+        this.source = null;
+        this.symbol = -1;
+        this.value = null;
 
         return this;
     }
 
     public Token append(char data)
     {
-        this.data += data;
+        this.data = toString() + data;
+        this.source = null;
+        this.symbol = -1;
+        this.value = null;
+
+        return this;
+    }
+
+    public Token setFile(String file)
+    {
+        this.file = file;
 
         return this;
     }
@@ -292,182 +399,172 @@ public class Token implements Iterable<Token>
         return this;
     }
 
-    private boolean isKeyword()
+    /**
+     * @return the type of the token whose text is 'length' characters of 'source' from 'start'.
+     */
+    public static Type classify(String source, int start, int length)
     {
-        final String keywords[] = {"if", "else", "struct", "try", "catch", "goto", "in", "for", "namespace", "package", "typedef"/**, "operator"**/, "op", "function", "template", "fun", "new", "class", "static", "ref", "reference", "ptr", "native"/**, "pointer"**/, "public", "private", "protected", "const", "final", "extend", "header", "if", "for", "while", "foreach", "then", "namespace", "return"};
-        for(String string : keywords) if(toString().equals(string)) return true;
-        return false;
+        if (length == 1)
+        {
+            switch (source.charAt(start))
+            {
+                case ')':   return Type.PARENTHESIS_CLOSED;
+                case '~':   return Type.NOT;
+                case '^':   return Type.XOR;
+                case '?':   return Type.TERNARY;
+                case '!':   return Type.LOGICAL_NOT;
+                case '(':   return Type.PARENTHESIS_OPEN;
+                case '}':   return Type.BRACES_CLOSED;
+                case '{':   return Type.BRACES_OPEN;
+                case ']':   return Type.BRACKETS_CLOSED;
+                case '[':   return Type.BRACKETS_OPEN;
+                case ';':   return Type.END;
+                case '=':   return Type.EQUALS;
+                case ',':   return Type.COMMA;
+                case '+':   return Type.ADDITION;
+                case '-':   return Type.SUBTRACTION;
+                case '*':   return Type.MULTIPLICATION;
+                case '/':   return Type.SUBDIVISION;
+                case '%':   return Type.MOD;
+                case '&':   return Type.AND;
+                case '|':   return Type.OR;
+                case '<':   return Type.LESS_THAN;
+                case '>':   return Type.MORE_THAN;
+                case '.':   return Type.PROCEDURAL_ACCESS;
+                case ':':   return Type.COLON;
+                case '\'': case '"': case '\\': case '$': case '#': case '@':
+                            return Type.SYMBOL;
+            }
+        }
+
+        if (length == 0)
+            return Type.UNDEFINED;
+
+        char first = source.charAt(start);
+
+        if (first == '"' || first == '\'')
+            return Type.STRING;
+
+        if (first >= '0' && first <= '9')
+        {
+            int end = start + length - (isSuffix(source.charAt(start + length - 1)) ? 1 : 0);
+
+            for (int i = start + 1; i < end; i ++)
+            {
+                char c = source.charAt(i);
+
+                if (c != '_' && (c < '0' || c > '9'))
+                    return Type.UNDEFINED;
+            }
+
+            return Type.NUMBER;
+        }
+
+        if (first < 'A' || first > 'z')
+            return Type.UNDEFINED;
+
+        int hash = 0;
+
+        for (int i = start; i < start + length; i ++)
+        {
+            char c = source.charAt(i);
+
+            if ((c < 'A' || c > 'z') && (c < '0' || c > '9'))
+                return Type.UNDEFINED;
+
+            hash = 31 * hash + c;
+        }
+
+        int slot = slot(hash, KEYWORDS.length - 1);
+        String keyword = KEYWORDS[slot];
+
+        if (keyword != null && keyword.length() == length && source.startsWith(keyword, start))
+            return KEYWORD_TYPES[slot];
+
+        return Type.IDENTIFIER;
     }
 
-    private void getAppropriateKeyword()
-    {
-        if (data.equals("class") || data.equals("struct"))
-            type = Type.CLASS;
-        else if (toString().equals("template")) type = Type.TEMPLATE;
-        else if (toString().equals("typedef")) type = Type.TYPEDEF;
-        else if (toString().equals("union")) type = Type.UNION;
-//        else if (toString().equals("operator")) type = Type.OPERATOR;
-        else if (toString().equals("namespace") || toString().equals("package")) type = Type.NAMESPACE;
-        else if (toString().equals("for")) type = Type.FOR;
-        else if (toString().equals("auto")) type = AUTO;
-        else if (toString().equals("in")) type = IN;
-        else if (toString().equals("goto")) type = GOTO;
-        else if (toString().equals("try")) type = TRY;
-        else if (toString().equals("catch")) type = CATCH;
-        else if (toString().equals("else")) type = ELSE;
-        else if (toString().equals("if")) type = IF;
-        else if (toString().equals("new")) type = NEW;
-        else if (toString().equals("each")) type = EACH;
-        else if (toString().equals("foreach")) type = FOREACH;
-        else if (toString().equals("return")) type = RETURN;
-        else type = Type.KEYWORD;
+    private static int slot(int hash, int mask)
+    {
+        return (hash ^ (hash >>> 7) ^ (hash >>> 16)) & mask;
     }
 
-    public Type getType()
+    private static boolean isSuffix(char c)
     {
-        if (type.equals(Type.UNDEFINED))
+        switch (c)
         {
-            final char separators[] = {'.', '=', '+', '-', '\'', '"', ',', '<', '>', '?', ';', ':', '!', '\\', '/', '[', ']', '{', '}', '(', ')', '*', '&', '^', '%', '$', '#', '@', '~'};
+            case 'f': case 'F': case 'd': case 'D': case 'l': case 'L':
+                return true;
+            default:
+                return false;
+        }
+    }
 
-            boolean separator = false;
+    public static Number literal(String text)
+    {
+        return literal(text, 0, text.length());
+    }
 
-            if (toString().length() == 1)
-            {
-                if (toString().charAt(0) == ')')
-                {
-                    type = Type.PARENTHESIS_CLOSED;
-                    return type;
-                } else if (toString().charAt(0) == '~')
-                {
-                    type = Type.NOT;
-                    return type;
-                } else if (toString().charAt(0) == '^')
-                {
-                    type = Type.XOR;
-                    return type;
-                } else if (toString().charAt(0) == '?')
-                {
-                    type = Type.TERNARY;
-                    return type;
-                } else if (toString().charAt(0) == '!')
-                {
-                    type = Type.LOGICAL_NOT;
-                    return type;
-                } else if (toString().charAt(0) == '(')
-                {
-                    type = Type.PARENTHESIS_OPEN;
-                    return type;
-                } else if (toString().charAt(0) == '}')
-                {
-                    type = Type.BRACES_CLOSED;
-                    return type;
-                } else if (toString().charAt(0) == '{')
-                {
-                    type = Type.BRACES_OPEN;
-                    return type;
-                } else if (toString().charAt(0) == ']')
-                {
-                    type = Type.BRACKETS_CLOSED;
-                    return type;
-                } else if (toString().charAt(0) == '[')
-                {
-                    type = Type.BRACKETS_OPEN;
-                    return type;
-                } else if (toString().charAt(0) == ';')
-                {
-                    type = Type.END;
-                    return type;
-                } else if (toString().charAt(0) == '=')
-                {
-                    type = Type.EQUALS;
-                    return type;
-                } else if (toString().charAt(0) == ',')
-                {
-                    type = Type.COMMA;
+    /**
+     * Parses the number literal that is 'length' characters of 'source' from 'start'.
+     * Underscores are skipped. A fraction or an 'f' / 'd' suffix makes a Float or Double,
+     * anything else (with or without an 'l') a Long.
+     *
+     * @return the value, or null if it is no literal or does not fit its type.
+     */
+    public static Number literal(String source, int start, int length)
+    {
+        if (length == 0)
+            return null;
 
-                    return type;
-                } else if (toString().charAt(0) == '!')
-                {
-                    type = Type.NEGATE;
+        char    suffix      = Character.toLowerCase(source.charAt(start + length - 1));
+        int     end         = start + length - (isSuffix(suffix) ? 1 : 0);
+        boolean floating    = suffix == 'f' || suffix == 'd';
+        boolean fits        = true;
+        long    value       = 0;
 
-                    return type;
-                } else if (toString().charAt(0) == '+' || toString().charAt(0) == '-' || toString().charAt(0) == '*'
-                        || toString().charAt(0) == '/' || toString().charAt(0) == '%')
-                {
-                    switch (toString())
-                    {
-                        case "+":
-                            type = Type.ADDITION;
-                            return type;
-                        case "-":
-                            type = Type.SUBTRACTION;
-                            return type;
-                        case "*":
-                            type = Type.MULTIPLICATION;
-                            return type;
-                        case "/":
-                            type = Type.SUBDIVISION;
-                            return type;
-                        case "%":
-                            type = Type.MOD;
-                            return type;
-                    }
-                    type = Type.MATH_OP;
-                    return type;
-                } else if (toString().charAt(0) == '&')
-                {
-                    type = Type.AND;
-                    return type;
-                } else if (toString().charAt(0) == '|')
-                {
-                    type = Type.OR;
-                    return type;
-                } else if (toString().charAt(0) == '<')
-                {
-                    type = Type.LESS_THAN;
-                    return type;
-                } else if (toString().charAt(0) == '>')
-                {
-                    type = Type.MORE_THAN;
-                    return type;
-                }
+        for (int i = start; i < end && !floating; i ++)
+        {
+            char c = source.charAt(i);
+
+            if (c == '.' && suffix != 'l')
+                floating = true;
+            else if (c != '_' && (c < '0' || c > '9'))
+                return null;
+            else if (c != '_' && fits && (fits = value <= (Long.MAX_VALUE - (c - '0')) / 10))
+                value = value * 10 + (c - '0');
+        }
 
-                for (char s : separators) if (toString().charAt(0) == s) separator = true;
-            }
+        if (!floating)
+            return fits ? value : null;
 
-            if (separator)
-            {
-                if (toString().charAt(0) == '.')
-                {
-                    type = Type.PROCEDURAL_ACCESS;
-                    return type;
-                } else if (toString().charAt(0) == ':')
-                {
-                    type = Type.COLON;
-                    return type;
-                }
-                type = Type.SYMBOL;
-            } else
-            {
-                if (toString().startsWith("\"") || toString().startsWith("'")) type = Type.STRING;
-                else if (toString().equals("extends"))
-                    type = Type.EXTEND;
-                else if (toString().matches("([_]*[A-z]+\\d*)+"))
-                {
-                    if (isKeyword())
-                    {
-                        getAppropriateKeyword();
-                    } else
-                        type = Type.IDENTIFIER;
-                } else if (toString().matches("(\\d[_]*\\d*)+")) type = Type.NUMBER;
-            }
+        String digits = source.substring(start, end).replace("_", "");
+
+        try
+        {
+            return suffix == 'f' ? (Number) Float.parseFloat(digits) : (Number) Double.parseDouble(digits);
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
         }
+    }
+
+    public Type getType()
+    {
+        if (type == Type.UNDEFINED)
+        {
+            String data = toString();
+
+            type = classify(data, 0, data.length());
+        }
+
         return this.type;
     }
 
     public String smartString()
     {
-        return "t{T:" + getType() + " d:" + data + "}";
+        return "t{T:" + getType() + " d:" + toString() + "}";
     }
 
     public Token add(Token ...tokens)
@@ -513,7 +610,7 @@ public class Token implements Iterable<Token>
 
     public String humanReadable(int i)
     {
-        String s = (whitespace(i) + type + " " + data + " (" + line + " " + offset + " " + whitespace + ") " + modifiers + "\n");// + " " + getInstructionsAsString()) + "\n";
+        String s = (whitespace(i) + type + " " + toString() + " (" + line + " " + offset + " " + whitespace + ") " + modifiers + "\n");// + " " + getInstructionsAsString()) + "\n";
 
         for(Token token : children)
             s += token.humanReadable(i + 1) + "\n";
@@ -523,7 +620,7 @@ public class Token implements Iterable<Token>
     public boolean isModifier()
     {
         for (Modifier modifier : Modifier.values())
-            if (modifier.toString().toLowerCase().equals(data))
+            if (modifier.toString().toLowerCase().equals(toString()))
                 return true;
 
         return false;
@@ -532,7 +629,7 @@ public class Token implements Iterable<Token>
     public Modifier asModifier()
     {
         for (Modifier modifier : Modifier.values())
-            if (modifier.toString().toLowerCase().equals(data))
+            if (modifier.toString().toLowerCase().equals(toString()))
                 return modifier;
 
         return null;
@@ -580,15 +677,32 @@ public class Token implements Iterable<Token>
         return null;
     }
 
+    /**
+     * Same value as toString().hashCode(), computed over the slice without copying it.
+     */
     @Override
     public int hashCode()
     {
-        return data.hashCode();
+        if (source == null)
+            return data.hashCode();
+
+        int hash = 0;
+
+        for (int i = start; i < start + length; i ++)
+            hash = 31 * hash + source.charAt(i);
+
+        return hash;
     }
 
     @Override
     public String toString()
     {
+        if (source != null)
+        {
+            data = source.substring(start, start + length);
+            source = null;
+        }
+
         return data;
     }
 }
\ No newline at end of file
@@ -0,0 +1,237 @@
+package mochaxx.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The tokens of a lexed program, one array per column.
+ *
+ * A token is an index: its type ordinal, where its text starts in the program and how long
+ * it is, the offset and whitespace it was found at and where it is. With a source map that is
+ * the output line, which the map turns into a file and a line; without one it is the line
+ * itself. That is 21 bytes a token with no object per token, no hash entry and no links;
+ * Token objects are only made by get(). Identifiers are interned, number literals parsed and
+ * lines looked up in the source map as get() hands them out, on whichever thread reads the
+ * buffer.
+ *
+ * The columns start small and grow by half, as a program's length says little about how
+ * many tokens it has (the sources here run from 2.7 to 4.5 characters a token).
+ */
+public class TokenBuffer
+{
+    private static final Token.Type TYPES[]     = Token.Type.values();
+    private static final int        CAPACITY    = 64;
+
+    static
+    {
+        if (TYPES.length > 256)
+            throw new IllegalStateException("token types do not fit in a byte: " + TYPES.length);
+    }
+
+    private final String    program;
+    private final SourceMap sourceMap;
+    private final Symbols   symbols;
+    private byte            type[];
+    private int             start[];
+    private int             length[];
+    private int             line[];
+    private int             offset[];
+    private int             whitespace[];
+    private int             size;
+
+    public TokenBuffer(String program, Symbols symbols)
+    {
+        this(program, null, symbols);
+    }
+
+    /**
+     * @param sourceMap gives every token the file its line came from (null if the program is not preprocessed).
+     */
+    public TokenBuffer(String program, SourceMap sourceMap, Symbols symbols)
+    {
+        this(program, sourceMap, symbols, CAPACITY);
+    }
+
+    public TokenBuffer(String program, SourceMap sourceMap, Symbols symbols, int capacity)
+    {
+        this.program    = program;
+        this.sourceMap  = sourceMap;
+        this.symbols    = symbols;
+        this.type       = new byte[capacity];
+        this.start      = new int[capacity];
+        this.length     = new int[capacity];
+        this.line       = new int[capacity];
+        this.offset     = new int[capacity];
+        this.whitespace = new int[capacity];
+    }
+
+    /**
+     * Adds a token found on output line 'row' and returns its index. With a source map only
+     * the row is kept, as the map gives the line back.
+     */
+    public int add(Token.Type type, int start, int length, int line, int offset, int whitespace, int row)
+    {
+        return add((byte) type.ordinal(), start, length, sourceMap == null ? line : row, offset, whitespace);
+    }
+
+    private int add(byte type, int start, int length, int line, int offset, int whitespace)
+    {
+        if (size == this.type.length)
+        {
+            int capacity = size + Math.max(CAPACITY, size / 2);
+
+            this.type       = Arrays.copyOf(this.type, capacity);
+            this.start      = Arrays.copyOf(this.start, capacity);
+            this.length     = Arrays.copyOf(this.length, capacity);
+            this.line       = Arrays.copyOf(this.line, capacity);
+            this.offset     = Arrays.copyOf(this.offset, capacity);
+            this.whitespace = Arrays.copyOf(this.whitespace, capacity);
+        }
+
+        this.type[size]         = type;
+        this.start[size]        = start;
+        this.length[size]       = length;
+        this.line[size]         = line;
+        this.offset[size]       = offset;
+        this.whitespace[size]   = whitespace;
+
+        return size ++;
+    }
+
+    /**
+     * Adds every token of 'other', moving the first 'shifted' of them 'shift' lines down.
+     * Tokens without a line (line ends) are left alone. Both buffers must share a source
+     * map, and with one there is nothing to shift.
+     */
+    public void append(TokenBuffer other, int shifted, int shift)
+    {
+        int from = size;
+
+        for (int i = 0; i < other.size; i ++)
+            add(other.type[i], other.start[i], other.length[i], other.line[i], other.offset[i], other.whitespace[i]);
+
+        if (shift != 0)
+            for (int i = from; i < from + shifted; i ++)
+                if (line[i] >= 0)
+                    line[i] += shift;
+    }
+
+    /**
+     * Removes the token at 'index', moving the ones after it down.
+     */
+    public void remove(int index)
+    {
+        int after = size - index - 1;
+
+        System.arraycopy(type, index + 1, type, index, after);
+        System.arraycopy(start, index + 1, start, index, after);
+        System.arraycopy(length, index + 1, length, index, after);
+        System.arraycopy(line, index + 1, line, index, after);
+        System.arraycopy(offset, index + 1, offset, index, after);
+        System.arraycopy(whitespace, index + 1, whitespace, index, after);
+        size --;
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public String getProgram()
+    {
+        return program;
+    }
+
+    public Symbols getSymbols()
+    {
+        return symbols;
+    }
+
+    public Token.Type getType(int index)
+    {
+        return TYPES[type[index] & 0xFF];
+    }
+
+    public int getStart(int index)
+    {
+        return start[index];
+    }
+
+    public int getLength(int index)
+    {
+        return length[index];
+    }
+
+    public int getLine(int index)
+    {
+        return sourceMap == null || line[index] < 0 ? line[index] : sourceMap.getLine(line[index]);
+    }
+
+    public int getOffset(int index)
+    {
+        return offset[index];
+    }
+
+    public int getWhitespace(int index)
+    {
+        return whitespace[index];
+    }
+
+    /**
+     * @return the file the token came from, or null if there is no source map.
+     */
+    public String getFile(int index)
+    {
+        return sourceMap == null ? null : sourceMap.getFile(line[index]);
+    }
+
+    public String getText(int index)
+    {
+        return program.substring(start[index], start[index] + length[index]);
+    }
+
+    /**
+     * @return a Token for the entry at 'index'. Line ends carry no position, separators share
+     * the lexer's string for their character and everything else is a slice of the program.
+     */
+    public Token get(int index)
+    {
+        Token.Type type = getType(index);
+
+        if (length[index] == 0 && type == Token.Type.END)
+            return new Token(Token.Type.END);
+
+        String symbol = length[index] == 1 ? Lexer.symbol(program.charAt(start[index])) : null;
+
+        if (symbol != null)
+            return new Token(symbol, getLine(index), offset[index], whitespace[index]).setType(type).setFile(getFile(index));
+
+        Token token = new Token(type, program, start[index], length[index], getLine(index), offset[index], whitespace[index]).setFile(getFile(index));
+
+        if (type == Token.Type.IDENTIFIER)
+            token.symbol = symbols.intern(program, start[index], length[index]);
+        else if (type == Token.Type.NUMBER)
+            token.value = Token.literal(program, start[index], length[index]);
+
+        return token;
+    }
+
+    /**
+     * @return Tokens for every entry, in order.
+     */
+    public List<Token> toTokens()
+    {
+        List<Token> tokens = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i ++)
+            tokens.add(get(i));
+
+        return tokens;
+    }
+}
@@ -0,0 +1,118 @@
+package mochaxx.compiler;
+
+/**
+ * The clean tokens of a program, lexed a line at a time as the parser pulls them.
+ *
+ * A cursor with peek(i) and poll(). Tokens read ahead wait in a ring that starts at
+ * CAPACITY and doubles whenever the parser looks further ahead than it holds, so only the
+ * current line and the lookahead are ever kept, however large the program is.
+ */
+public class TokenSource
+{
+    /**
+     * The ring a source starts with; a power of two, as every size it grows to.
+     */
+    public static final int CAPACITY = 64;
+
+    private final Lexer         lexer;
+    private final TokenBuffer   line;
+    private Token               ring[];
+    private int                 cursor;
+    private int                 head;
+    private int                 count;
+    private boolean             more;
+
+    public TokenSource(String program, SourceMap sourceMap, Symbols symbols)
+    {
+        this.lexer  = new Lexer(program, sourceMap, symbols);
+        this.line   = new TokenBuffer(program, sourceMap, symbols, 64);
+        this.ring   = new Token[CAPACITY];
+        this.more   = true;
+    }
+
+    /**
+     * Hands out the clean tokens of a program that is already lexed.
+     */
+    public TokenSource(TokenBuffer tokens)
+    {
+        this.lexer  = null;
+        this.line   = tokens;
+        this.ring   = new Token[CAPACITY];
+        this.more   = false;
+    }
+
+    /**
+     * Reads ahead until 'n' tokens wait in the ring, growing it if they do not fit.
+     *
+     * @return false if the program ends first.
+     */
+    private boolean fill(int n)
+    {
+        while (count < n)
+        {
+            if (cursor == line.size())
+            {
+                if (!more)
+                    return false;
+
+                line.clear();
+                cursor = 0;
+                more = lexer.next(line);
+                continue;
+            }
+
+            int i = cursor ++;
+
+            if (line.getType(i).equals(Token.Type.UNDEFINED) && line.getLength(i) == 0)
+                continue;
+
+            if (count == ring.length)
+                grow();
+
+            ring[(head + count ++) & (ring.length - 1)] = line.get(i);
+        }
+
+        return true;
+    }
+
+    private void grow()
+    {
+        Token grown[] = new Token[ring.length * 2];
+
+        for (int i = 0; i < count; i ++)
+            grown[i] = ring[(head + i) & (ring.length - 1)];
+
+        ring = grown;
+        head = 0;
+    }
+
+    /**
+     * @return the token 'i' places ahead, or null if the program ends before it.
+     */
+    public Token peek(int i)
+    {
+        return fill(i + 1) ? ring[(head + i) & (ring.length - 1)] : null;
+    }
+
+    public Token peek()
+    {
+        return peek(0);
+    }
+
+    /**
+     * @return the next token, or null at the end of the program.
+     */
+    public Token poll()
+    {
+        if (!fill(1))
+            return null;
+
+        Token token = ring[head];
+
+        ring[head] = null;
+        head = (head + 1) & (ring.length - 1);
+        count --;
+
+        return token;
+    }
+}
@@ -1,13 +1,23 @@
 package mochaxx.compiler;
 
 import java.util.Collection;
-import java.util.LinkedList;
 
 import static mochaxx.compiler.Token.Type.*;
 
+/**
+ * A cursor over the tokens the parser reads.
+ *
+ * Tokens sit in an array and the cursor is an index into it, so peek(i) is one array read
+ * however far it looks. A stream over a TokenSource pulls its tokens from the lexer instead
+ * and looks ahead as far as it is asked to. Neither goes back: the parser decides on what
+ * it peeks, and end() is how it knows there is nothing left.
+ */
 public class TokenStream
 {
-    public LinkedList<Token> tokens;
+    private final TokenSource   source;
+    private final Token         tokens[];
+    private final int           limit;
+    private int                 position;
 
     public static Token.Type[] Optional(Token.Type... types)
     {
@@ -16,7 +26,36 @@ public class TokenStream
 
     public TokenStream(Collection<Token> tokens)
     {
-        this.tokens = new LinkedList<>(tokens);
+        this(tokens.toArray(new Token[tokens.size()]), 0, tokens.size());
+    }
+
+    /**
+     * Pulls tokens from 'tokens' as they are needed instead of copying them.
+     */
+    public TokenStream(TokenSource tokens)
+    {
+        this.source     = tokens;
+        this.tokens     = null;
+        this.limit      = -1;
+    }
+
+    private TokenStream(Token tokens[], int from, int to)
+    {
+        this.source     = null;
+        this.tokens     = tokens;
+        this.position   = from;
+        this.limit      = to;
+    }
+
+    /**
+     * @return the token 'i' places ahead, or null if there is none.
+     */
+    public Token peek(int i)
+    {
+        if (source != null)
+            return source.peek(i);
+
+        return position + i < limit ? tokens[position + i] : null;
     }
 
     public boolean matches(Token.Type ...types)
@@ -26,17 +65,17 @@ public class TokenStream
 
     public boolean matches(Token.Type[] optional, Token.Type ...types)
     {
-        if (tokens.size() < types.length)
+        if (types.length > 0 && peek(types.length - 1) == null)
             return false;
 
         for (int i = 0; i < types.length; i ++)
-            if (types[i].equals(ANY_NOT_END) && !tokens.get(i).getType().equals(END))
+            if (types[i].equals(ANY_NOT_END) && !peek(i).getType().equals(END))
                 continue;
-            else if (types[i].equals(ANY_NOT_SUBEND) && !tokens.get(i).getType().equals(SUBTRACTION) && !tokens.get(i).getType().equals(END))
+            else if (types[i].equals(ANY_NOT_SUBEND) && !peek(i).getType().equals(SUBTRACTION) && !peek(i).getType().equals(END))
                 continue;
-            else if (types[i].equals(MATH_OP) && InfixToPostFixEvalution.isOperator(tokens.get(i)))
+            else if (types[i].equals(MATH_OP) && InfixToPostFixEvalution.isOperator(peek(i)))
                 return false;
-            else if (!types[i].equals(Token.Type.ANY) && !tokens.get(i).getType().equals(types[i]))
+            else if (!types[i].equals(Token.Type.ANY) && !peek(i).getType().equals(types[i]))
                 return false;
 
         return true;
@@ -44,12 +83,15 @@ public class TokenStream
 
     public Token poll()
     {
-        return tokens.poll();
+        if (source != null)
+            return source.poll();
+
+        return position < limit ? tokens[position ++] : null;
     }
 
     public Token peek()
     {
-        return tokens.peek();
+        return peek(0);
     }
 
     public Token skipPoll()
@@ -60,6 +102,6 @@ public class TokenStream
 
     public boolean end()
     {
-        return tokens.size() == 0;
+        return source != null ? source.peek() == null : position >= limit;
     }
 }
\ No newline at end of file
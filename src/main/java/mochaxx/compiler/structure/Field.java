@@ -76,13 +76,13 @@ public class Field implements Cloneable
 
         for (Token g : token)
             if (globalMap.containsKey(g))
-                gSpec.add(globalMap.get(g.data));
-            else if (struct.isTemplateType(g.data))
+                gSpec.add(globalMap.get(g.toString()));
+            else if (struct.isTemplateType(g.toString()))
             {
             }
             else
             {
-                System.err.println("compile-err: type '" + g.data + "' does not exist.");
+                System.err.println("compile-err: type '" + g.toString() + "' does not exist.");
                 System.exit(0);
             }
     }
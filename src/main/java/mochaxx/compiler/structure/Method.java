@@ -143,7 +143,7 @@ public class Method extends Field implements Cloneable
             switch (token.getType())
             {
                 case EMPTY_DECLARATION:
-                    if (!mscope.push(token.getChild(1).data, globalTypes.get(token.getChild(0).data)))
+                    if (!mscope.push(token.getChild(1).toString(), globalTypes.get(token.getChild(0).toString())))
                     {
                         System.err.println("field already declared in scope.");
                         System.err.println("infostr: " + token.infoString());
@@ -154,7 +154,7 @@ public class Method extends Field implements Cloneable
                     /**
                      * No need to push to stack because compiling the declaration.value will push to stack.
                      */
-                    if (!mscope.containsKey(token.getChild(1).data))//mscope.push(token.getChild(1).data, globalTypes.get(token.getChild(0).data)))
+                    if (!mscope.containsKey(token.getChild(1).toString()))//mscope.push(token.getChild(1).data, globalTypes.get(token.getChild(0).data)))
                     {
                         System.err.println("field already declared in scope.");
                         System.err.println("infostr: " + token.infoString());
@@ -121,6 +121,19 @@ public class OpcodeStream
         else _op(push, data, comment.length() == 0 ? "push an int with value '" + data + "'" : comment);
     }
 
+    public void op_psh(long value)
+    {
+        op_psh(value, "");
+    }
+    public void op_psh(long value, String comment)
+    {
+        if (value == 0)
+            _op(push_0, "", comment.length() == 0 ? "push an int with value 0" : comment);
+        else if (value == 1)
+            _op(push_1, "", comment.length() == 0 ? "push an int with value 1" : comment);
+        else _op(push, Long.toString(value), comment.length() == 0 ? "push an int with value '" + value + "'" : comment);
+    }
+
     public void op_dup(String comment)
     {
         _op(dup, "", comment);
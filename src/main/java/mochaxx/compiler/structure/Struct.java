@@ -26,7 +26,7 @@ public class Struct implements Cloneable
 
     public Struct(Token token)
     {
-        this.name   = token.get(Token.Type.NAME).data;
+        this.name   = token.get(Token.Type.NAME).toString();
         this.token  = token;
         this.fields = new LinkedHashSet<>();
         this.methods= new LinkedHashSet<>();
@@ -177,7 +177,7 @@ public class Struct implements Cloneable
             return false;
 
         for (Token token : template)
-            if (token.getChild(1).data.equals(type))
+            if (token.getChild(1).toString().equals(type))
                 return true;
 
         return false;
@@ -219,7 +219,7 @@ public class Struct implements Cloneable
             try
             {
                 for (int i = 0; i < template.children.size(); i ++)
-                    if (template.getChild(i).get(NAME).data.equals(name))
+                    if (template.getChild(i).get(NAME).toString().equals(name))
                         return generics[i];
             } catch (NullPointerException e)
             {
@@ -0,0 +1,141 @@
+package mochaxx;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class CompileDaemonTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private int     port;
+    private Thread  daemon;
+
+    @Before
+    public void startDaemon() throws Exception
+    {
+        try (ServerSocket free = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+        {
+            port = free.getLocalPort();
+        }
+
+        daemon = new Thread(() ->
+        {
+            try {
+                new CompileDaemon(port).serve();
+            } catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        });
+        daemon.setDaemon(true);
+        daemon.start();
+
+        for (int i = 0; i < 600 && !Files.exists(CompileDaemon.tokenFile(port)); i ++)
+            Thread.sleep(50);
+
+        assertTrue(Files.exists(CompileDaemon.tokenFile(port)));
+    }
+
+    @After
+    public void stopDaemon() throws Exception
+    {
+        request(token(), new String[] {"-shutdown"}, new ByteArrayOutputStream());
+        daemon.join(10000);
+    }
+
+    private String token() throws IOException
+    {
+        return new String(Files.readAllBytes(CompileDaemon.tokenFile(port)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sends a request the way forward() does, with 'token' in front of it.
+     *
+     * @return the exit status; everything the daemon printed goes to 'output'.
+     */
+    private int request(String token, String args[], ByteArrayOutputStream output) throws IOException
+    {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port))
+        {
+            DataOutputStream    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream     in  = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            out.writeUTF(token);
+            out.writeUTF(folder.getRoot().getAbsolutePath());
+            out.writeInt(args.length);
+
+            for (String arg : args)
+                out.writeUTF(arg);
+
+            out.flush();
+
+            while (true)
+            {
+                byte channel = in.readByte();
+
+                if (channel == 0)
+                    return in.readInt();
+
+                byte data[] = new byte[in.readInt()];
+                in.readFully(data);
+                output.write(data);
+            }
+        }
+    }
+
+    private File program() throws IOException
+    {
+        File file = folder.newFile("main.mocha");
+
+        Files.write(file.toPath(), "class Main\n{\n    int x\n\n    int get()\n    {\n        return x\n    }\n}\n".getBytes(StandardCharsets.UTF_8));
+
+        return file;
+    }
+
+    @Test
+    public void requestsWithTheTokenAreCompiled() throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        assertEquals(0, request(token(), new String[] {"-c", program().getName()}, output));
+        assertTrue(output.toString("UTF-8").contains("Main_get:"));
+    }
+
+    @Test
+    public void requestsWithoutTheTokenAreRefused() throws IOException
+    {
+        ByteArrayOutputStream   output      = new ByteArrayOutputStream();
+        File                    manifest    = new File(folder.getRoot(), "manifest");
+
+        assertEquals(1, request("guess", new String[] {"-incremental", manifest.getPath(), "-c", program().getName()}, output));
+
+        String printed = output.toString("UTF-8");
+
+        assertTrue(printed.contains("request refused"));
+        assertFalse(printed.contains("Main_get:"));
+        assertFalse(manifest.exists());
+    }
+
+    @Test
+    public void shutdownWithoutTheTokenIsRefused() throws Exception
+    {
+        assertEquals(1, request("", new String[] {"-shutdown"}, new ByteArrayOutputStream()));
+
+        daemon.join(200);
+
+        assertTrue(daemon.isAlive());
+    }
+}
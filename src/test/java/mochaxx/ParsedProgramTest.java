@@ -0,0 +1,515 @@
+package mochaxx;
+
+import mochaxx.compiler.CompileError;
+import mochaxx.compiler.DynamicLibraryLoader;
+import mochaxx.compiler.IncludeCache;
+import mochaxx.compiler.LexedProgram;
+import mochaxx.compiler.PreprocessedProgram;
+import mochaxx.compiler.SourceMap;
+import mochaxx.compiler.Token;
+import mochaxx.compiler.TokenStream;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static mochaxx.compiler.InfixToPostFixEvalution.convertToPostfix;
+import static mochaxx.compiler.Token.Type.*;
+import static org.junit.Assert.*;
+
+public class ParsedProgramTest
+{
+    private static final String PROGRAM =
+            "class Point\n{\n    int x\n    int y\n\n    int sum()\n    {\n        return x + y\n    }\n}\n\n"
+            + "class Line\n{\n    Point from\n    Point to\n\n    int length()\n    {\n        return to\n    }\n}\n";
+
+    @After
+    public void stopKeepingClasses()
+    {
+        IncludeCache.setParsedClasses(null);
+    }
+
+    /**
+     * @return what parsing and compiling 'program' prints.
+     */
+    static String compile(String program, boolean lazy)
+    {
+        PrintStream             out     = System.out;
+        ByteArrayOutputStream   bytes   = new ByteArrayOutputStream();
+
+        System.setOut(new PrintStream(bytes, true));
+
+        try {
+            new CompiledProgram(new ParsedProgram(new LexedProgram(program), lazy));
+        } finally {
+            System.setOut(out);
+        }
+
+        return bytes.toString();
+    }
+
+    /**
+     * @return what compiling 'program' prints, with its lines mapped to 'files' in turn, one
+     * line of 'lines' apiece, and the last of 'files' as the main file.
+     */
+    static String compile(String program, boolean lazy, String files[], int lines[])
+    {
+        SourceMap map = new SourceMap();
+
+        for (int i = 0; i < files.length; i ++)
+            for (int line = 1; line <= lines[i]; line ++)
+                map.add(files[i], line);
+
+        PrintStream             out     = System.out;
+        ByteArrayOutputStream   bytes   = new ByteArrayOutputStream();
+
+        System.setOut(new PrintStream(bytes, true));
+
+        try {
+            new CompiledProgram(new ParsedProgram(new LexedProgram(program, map), lazy), files[files.length - 1]);
+        } finally {
+            System.setOut(out);
+        }
+
+        return bytes.toString();
+    }
+
+    /**
+     * @return the code generated for each function, by its label, in the order it was written.
+     */
+    static Map<String, String> functions(String output)
+    {
+        Map<String, String> functions   = new LinkedHashMap<>();
+        String              code        = output.substring(output.indexOf("compilation started.\n") + "compilation started.\n".length());
+        String              label       = null;
+
+        for (String line : code.split("\n"))
+        {
+            if (line.endsWith(":") && !line.startsWith("\t"))
+                functions.put(label = line, "");
+            else if (label != null)
+                functions.put(label, functions.get(label) + line + "\n");
+        }
+
+        return functions;
+    }
+
+    static String dump(ParsedProgram program)
+    {
+        StringBuilder dump = new StringBuilder();
+
+        for (Token token : program.getTokens())
+            dump.append(token.humanReadable());
+
+        return dump.toString();
+    }
+
+    private static void assertSymbols(ParsedProgram program, Token token)
+    {
+        if (token.symbol >= 0)
+            assertEquals(program.getSymbols().intern(token.toString()), token.symbol);
+
+        for (Token child : token.getChildren())
+            assertSymbols(program, child);
+    }
+
+    @Test
+    public void reusedClassesMatchAFreshParse()
+    {
+        String fresh = compile(PROGRAM, false);
+
+        IncludeCache cache = new IncludeCache(IncludeCache.DEFAULT_CAPACITY);
+        IncludeCache.setParsedClasses(cache);
+
+        assertEquals(fresh, compile(PROGRAM, false));
+        assertEquals(0, cache.getHits());
+
+        assertEquals(fresh, compile(PROGRAM, false));
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void reusedClassesAreCopiesWithTheirOwnSymbols()
+    {
+        IncludeCache.setParsedClasses(new IncludeCache(IncludeCache.DEFAULT_CAPACITY));
+
+        ParsedProgram first     = new ParsedProgram(new LexedProgram(PROGRAM));
+        ParsedProgram second    = new ParsedProgram(new LexedProgram("class Other\n{\n    int z\n}\n\n" + PROGRAM.replace("class Point", "\n\n\nclass Point")));
+        ParsedProgram third     = new ParsedProgram(new LexedProgram(PROGRAM));
+
+        assertEquals(dump(first), dump(third));
+
+        Iterator<Token> a = first.getTokens().iterator();
+        Iterator<Token> b = third.getTokens().iterator();
+
+        while (a.hasNext())
+            assertNotSame(a.next(), b.next());
+
+        for (Token token : third.getTokens())
+            assertSymbols(third, token);
+
+        for (Token token : second.getTokens())
+            assertSymbols(second, token);
+    }
+
+    @Test
+    public void classesOnOtherLinesAreParsedAgain()
+    {
+        IncludeCache cache = new IncludeCache(IncludeCache.DEFAULT_CAPACITY);
+        IncludeCache.setParsedClasses(cache);
+
+        new ParsedProgram(new LexedProgram(PROGRAM));
+        new ParsedProgram(new LexedProgram("\n" + PROGRAM));
+
+        assertEquals(0, cache.getHits());
+    }
+
+    private static List<Token> tokens(int count)
+    {
+        List<Token> tokens = new ArrayList<>();
+
+        for (int i = 0; i < count; i ++)
+            tokens.add(new Token(Token.Type.IDENTIFIER));
+
+        return tokens;
+    }
+
+    @Test
+    public void parallelStagesWriteWhereTheCallerIsBound()
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Start.bind(out, new ByteArrayOutputStream());
+
+        try {
+            ParsedProgram.forEach(tokens(ParsedProgram.PARALLEL * 4), token -> System.out.print('x'));
+        } finally {
+            Start.unbind();
+        }
+
+        assertEquals(ParsedProgram.PARALLEL * 4, out.size());
+    }
+
+    @Test
+    public void theFirstErrorCancelsTheRest()
+    {
+        List<Token>     tokens  = tokens(ParsedProgram.PARALLEL * 4);
+        AtomicInteger   started = new AtomicInteger();
+        ForkJoinPool    pool    = new ForkJoinPool(1);
+
+        try {
+            pool.submit(() -> ParsedProgram.forEach(tokens, token ->
+            {
+                started.incrementAndGet();
+
+                if (token == tokens.get(0))
+                    throw new IllegalStateException("first");
+
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                }
+            })).join();
+
+            fail("the error was not thrown.");
+        } catch (IllegalStateException e) {
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertTrue(started.get() < tokens.size());
+    }
+
+    @Test
+    public void lazyCodeIsTheEagerCode()
+    {
+        assertEquals(functions(compile(PROGRAM, false)), functions(compile(PROGRAM, true)));
+        assertTrue(compile(PROGRAM, false).contains("CLASS_DECLARATION"));
+        assertFalse(compile(PROGRAM, true).contains("CLASS_DECLARATION"));
+    }
+
+    private static final String LIBRARY =
+            "class Lib\n{\n    int a\n\n    int used()\n    {\n        return a\n    }\n\n"
+            + "    int unused()\n    {\n        return a\n    }\n}\n"
+            + "class V\n{\n    int a\n\n    operator addition(V other)\n    {\n        return a\n    }\n\n"
+            + "    operator subtraction(V other)\n    {\n        return a\n    }\n}\n";
+
+    /**
+     * Compiles 'main' after LIBRARY, from two files, both eagerly and lazily, and checks the
+     * lazy code is the eager code of the functions it kept, in the same order.
+     *
+     * @return the labels of the functions the lazy compile generated.
+     */
+    private static List<String> lazyFunctions(String main)
+    {
+        String  files[] = { "lib.mxx", "main.mocha" };
+        int     lines[] = { LIBRARY.split("\n").length, main.split("\n").length };
+
+        Map<String, String> eager   = functions(compile(LIBRARY + main, false, files, lines));
+        Map<String, String> lazy    = functions(compile(LIBRARY + main, true, files, lines));
+
+        assertTrue(eager.keySet().containsAll(Arrays.asList("Lib_used:", "Lib_unused:", "V_addition_V:", "V_subtraction_V:")));
+
+        eager.keySet().retainAll(lazy.keySet());
+
+        assertEquals(new ArrayList<>(eager.entrySet()), new ArrayList<>(lazy.entrySet()));
+
+        return new ArrayList<>(lazy.keySet());
+    }
+
+    @Test
+    public void lazyCodeKeepsTheMethodsMainCalls()
+    {
+        String main = "class Main\n{\n    Lib lib\n\n    int run()\n    {\n        return lib.used()\n    }\n}\n";
+
+        assertEquals(Arrays.asList("Lib_used:", "Main_run:"), lazyFunctions(main));
+    }
+
+    @Test
+    public void lazyCodeKeepsTheOperatorsMainUses()
+    {
+        String main = "class Main\n{\n    V v\n    V w\n\n    int sum()\n    {\n        v = v + w\n    }\n}\n";
+
+        assertEquals(Arrays.asList("V_addition_V:", "Main_sum:"), lazyFunctions(main));
+    }
+
+    @Test
+    public void fieldsNamedLikeAMethodDoNotKeepIt()
+    {
+        String main = "class Main\n{\n    int unused\n\n    int get()\n    {\n        return unused\n    }\n}\n";
+
+        assertEquals(Arrays.asList("Main_get:"), lazyFunctions(main));
+    }
+
+    @Test
+    public void literalsArePushedByValue()
+    {
+        Map<String, String> functions = functions(compile("class M\n{\n    int a()\n    {\n        return 1_000\n    }\n\n    int b()\n    {\n        return 1\n    }\n}\n", false));
+
+        assertTrue(functions.get("M_a:").contains("push 1000 "));
+        assertTrue(functions.get("M_b:").contains("push_1 "));
+    }
+
+    /**
+     * @return the message compiling a function that returns 'literal' fails with.
+     */
+    private static String literalError(String literal)
+    {
+        try {
+            compile("class M\n{\n    int a()\n    {\n        return " + literal + "\n    }\n}\n", false);
+        } catch (CompileError e) {
+            return e.getMessage();
+        }
+
+        fail("'" + literal + "' was pushed.");
+        return null;
+    }
+
+    @Test
+    public void literalsThatDoNotFitAreReported()
+    {
+        assertTrue(literalError("99999999999999999999").contains("does not fit in a long"));
+    }
+
+    @Test
+    public void floatingLiteralsAreNotTruncated()
+    {
+        for (String literal : new String[] {"2.5", "1f", "3d"})
+            assertTrue(literal, literalError(literal).contains("floating literal '" + literal + "' is not supported"));
+    }
+
+    @Test
+    public void malformedLiteralsAreReportedAsSuch()
+    {
+        assertTrue(literalError("1.5l").contains("malformed number literal '1.5l'"));
+    }
+
+    private static final String REWRITES =
+            "class barray\n{\n    const MemObject pointer\n    const int       length\n\n"
+            + "    operator subscript(int i)\n    {\n        return pointer[i]\n    }\n}\n\n"
+            + "class Calc\n{\n    barray data\n    int    total\n\n    int run(int a, int b)\n    {\n"
+            + "        int x = a + b * 2 - 3\n        int y\n        y = x * (a - b) + 1\n        total = total + x\n"
+            + "        data[a] = b + 1\n        data[a + 1] = (x)[0]\n        const int z = y + 2 | a & b\n"
+            + "        total += z\n        int w = (a + b) * (a - b)\n        data[w] = w\n        return x + y * z\n    }\n}\n";
+
+    /**
+     * The passes rewrite() replaced, as they were: the whole tree in postfix order, then one
+     * whole-tree pass per rule.
+     */
+    private static Queue<Token> chained(Queue<Token> body)
+    {
+        Queue<Token> out = fixMath(body);
+        out = lastStep1(new TokenStream(out));
+        out = lastStep2(new TokenStream(out));
+        return lastStep3(new TokenStream(out));
+    }
+
+    private static Queue<Token> fixMath(Collection<Token> tokens)
+    {
+        for (Token token : tokens)
+        {
+            Queue<Token> t = fixMath(token.children);
+            token.children.clear();
+            token.add(t);
+        }
+
+        return new LinkedList<>(convertToPostfix(tokens.toArray(new Token[tokens.size()])));
+    }
+
+    private static Queue<Token> lastStep1(TokenStream in)
+    {
+        Queue<Token> out = new LinkedList<>();
+
+        while (!in.end())
+        {
+            while (in.peek() != null && in.peek().isModifier())
+                in.poll();
+
+            if (in.matches(STATEMENT, SUBSCRIPT))
+            {
+                Token whatever = in.poll().clean();
+                Token subscript = in.poll();
+
+                if (whatever.children.size() > 1)
+                    ParsedProgram.errstr(whatever, "subscript modifier not allowed in this context.");
+
+                out.add(subscript.push_back(whatever.getChild(0)));
+            }
+            else
+                out.add(in.poll());
+        }
+
+        for (Token token : out)
+        {
+            Queue<Token> o = lastStep1(new TokenStream(token.children));
+            token.children.clear();
+            token.add(o);
+        }
+
+        return out;
+    }
+
+    private static Queue<Token> lastStep2(TokenStream in)
+    {
+        Queue<Token> out = new LinkedList<>();
+
+        while (!in.end())
+        {
+            while (in.peek() != null && in.peek().isModifier())
+                in.poll();
+
+            if (in.matches(SUBSCRIPT, ASSIGNMENT))
+                out.add(in.poll().setType(SUBSCRIPT_ASSIGNMENT).add(in.poll().setType(EQUALS)));
+            else
+                out.add(in.poll());
+        }
+
+        for (Token token : out)
+        {
+            Queue<Token> o = lastStep2(new TokenStream(token.children));
+            token.children.clear();
+            token.add(o);
+        }
+
+        return out;
+    }
+
+    private static Queue<Token> lastStep3(TokenStream in)
+    {
+        Queue<Token> out = new LinkedList<>();
+
+        while (!in.end())
+        {
+            while (in.peek() != null && in.peek().isModifier())
+                in.poll();
+
+            if (in.matches(EMPTY_DECLARATION, ASSIGNMENT))
+                out.add(in.poll().add(in.poll().setType(EQUALS)).setType(FULL_DECLARATION));
+            else if (in.matches(ANY, ASSIGNMENT))
+                out.add(in.poll().add(in.poll().setType(EQUALS)).setType(ASSIGNMENT));
+            else
+                out.add(in.poll());
+        }
+
+        return out;
+    }
+
+    private static String dump(Collection<Token> tokens)
+    {
+        StringBuilder dump = new StringBuilder();
+
+        for (Token token : tokens)
+            dump.append(token.humanReadable());
+
+        return dump.toString();
+    }
+
+    /**
+     * Parses 'program' twice, lazily, and checks that every method body comes out of
+     * rewrite() as it comes out of the passes it replaced.
+     *
+     * @return the number of method bodies compared.
+     */
+    private static int assertRewrittenLikeChained(String name, LexedProgram first, LexedProgram second)
+    {
+        List<Token> chained     = new ArrayList<>();
+        List<Token> rewritten   = new ArrayList<>();
+
+        for (Token struct : new ParsedProgram(first, true).getTokens())
+            chained.addAll(ParsedProgram.methods(struct));
+
+        for (Token struct : new ParsedProgram(second, true).getTokens())
+            rewritten.addAll(ParsedProgram.methods(struct));
+
+        assertEquals(name, chained.size(), rewritten.size());
+
+        for (int i = 0; i < chained.size(); i ++)
+        {
+            Token expected  = chained.get(i).get(BRACES);
+            Token actual    = rewritten.get(i).get(BRACES);
+
+            assertEquals(name, dump(chained(ParsedProgram.organize(new TokenStream(expected.children), false))),
+                    dump(ParsedProgram.rewrite(ParsedProgram.organize(new TokenStream(actual.children), false), null)));
+        }
+
+        return chained.size();
+    }
+
+    private static LexedProgram preprocess(File file) throws IOException
+    {
+        String              data    = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        PreprocessedProgram program = new PreprocessedProgram(data, file, new DynamicLibraryLoader(new IncludeCache(IncludeCache.DEFAULT_CAPACITY), null, file));
+
+        return new LexedProgram(program.getFinalProgram(), program.getSourceMap());
+    }
+
+    @Test
+    public void rewrittenBodiesMatchTheChainedPasses() throws IOException
+    {
+        int methods = 0;
+
+        for (String program : new String[] { PROGRAM, REWRITES, LIBRARY + "class Main\n{\n    Lib lib\n    V v\n    V w\n\n"
+                + "    int run()\n    {\n        v = v + w - v\n        return lib.used()\n    }\n}\n" })
+            methods += assertRewrittenLikeChained(program, new LexedProgram(program), new LexedProgram(program));
+
+        methods += assertRewrittenLikeChained("test.mocha", preprocess(new File("test.mocha")), preprocess(new File("test.mocha")));
+
+        assertTrue(methods > 10);
+    }
+}
@@ -0,0 +1,80 @@
+package mochaxx;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class StartTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void write(String name, String text) throws IOException
+    {
+        Files.write(new File(folder.getRoot(), name).toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return what running 'args' in the temporary folder prints, without the timings.
+     */
+    private String run(String ...args) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Start.bind(out, out);
+
+        try {
+            assertEquals(0, new Start(folder.getRoot(), false).run(args));
+        } finally {
+            Start.unbind();
+        }
+
+        return out.toString("UTF-8").replaceAll("[0-9.]+ms", "Xms");
+    }
+
+    private void sources() throws IOException
+    {
+        write("lib.mxx", "class Lib\n{\n    int a\n\n    int get()\n    {\n        return a\n    }\n}\n");
+        write("a.mocha", "#include \"lib.mxx\"\nclass A\n{\n    int x\n\n    int get()\n    {\n        return x\n    }\n}\n");
+        write("b.mocha", "class B\n{\n    int y\n\n    int get()\n    {\n        return y\n    }\n}\n");
+    }
+
+    @Test
+    public void anIncrementalBuildPrintsWhatACleanOneDoes() throws IOException
+    {
+        sources();
+
+        String clean    = run("-c", "a.mocha", "-c", "b.mocha");
+        String first    = run("-incremental", "build.manifest", "-c", "a.mocha", "-c", "b.mocha");
+        String second   = run("-incremental", "build.manifest", "-c", "a.mocha", "-c", "b.mocha");
+
+        assertTrue(clean.contains("A_get:"));
+        assertEquals(clean, first);
+        assertEquals(clean, second);
+        assertTrue(run("-incremental", "build.manifest", "-stats", "-c", "a.mocha").contains("stats: 1 file(s) up to date."));
+    }
+
+    @Test
+    public void aParallelIncrementalBuildPrintsWhatACleanOneDoes() throws IOException
+    {
+        sources();
+
+        String clean    = run("-j", "2", "-c", "a.mocha", "-c", "b.mocha");
+        String first    = run("-j", "2", "-incremental", "build.manifest", "-c", "a.mocha", "-c", "b.mocha");
+
+        write("b.mocha", "class B\n{\n    int z\n\n    int get()\n    {\n        return z\n    }\n}\n");
+
+        String second   = run("-j", "2", "-incremental", "build.manifest", "-c", "a.mocha", "-c", "b.mocha");
+
+        assertEquals(clean, first);
+        assertEquals(clean.replace("y", "z"), second);
+    }
+}
@@ -0,0 +1,105 @@
+package mochaxx.compiler;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BuildManifestTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String name, String text) throws IOException
+    {
+        File file = new File(folder.getRoot(), name);
+
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+
+        return file;
+    }
+
+    private static List<DynamicLibraryLoader.Dependency> inputs(File file) throws IOException
+    {
+        return Collections.singletonList(new DynamicLibraryLoader.Dependency(file.getAbsolutePath(), DynamicLibraryLoader.hash(file.getAbsolutePath())));
+    }
+
+    @Test
+    public void upToDateOnlyWithTheSameFlags() throws IOException
+    {
+        File            main        = write("main.mocha", "class Main\n{\n}\n");
+        File            file        = new File(folder.getRoot(), "build.manifest");
+        BuildManifest   manifest    = new BuildManifest(file);
+
+        assertFalse(manifest.isUpToDate(main.getPath(), "lazy=false"));
+
+        manifest.record(main.getPath(), "lazy=false", inputs(main), new byte[0]);
+        manifest.write();
+
+        BuildManifest read = new BuildManifest(file);
+
+        assertTrue(read.isUpToDate(main.getPath(), "lazy=false"));
+        assertFalse(read.isUpToDate(main.getPath(), "lazy=true"));
+    }
+
+    @Test
+    public void changedInputsAreNotUpToDate() throws IOException
+    {
+        File            main        = write("main.mocha", "class Main\n{\n}\n");
+        File            file        = new File(folder.getRoot(), "build.manifest");
+        BuildManifest   manifest    = new BuildManifest(file);
+
+        manifest.record(main.getPath(), "", inputs(main), new byte[0]);
+        manifest.write();
+
+        write("main.mocha", "class Main\n{\n    int x\n}\n");
+
+        assertFalse(new BuildManifest(file).isUpToDate(main.getPath(), ""));
+    }
+
+    /**
+     * Older manifests kept neither flags nor output; they are read, but the files in them
+     * are compiled again since there is nothing to print for them.
+     */
+    @Test
+    public void manifestsWithoutOutputAreRebuilt() throws IOException
+    {
+        File main = write("main.mocha", "class Main\n{\n}\n");
+        File file = write("build.manifest", main.getAbsolutePath() + "\n\t" + inputs(main).get(0) + "\n");
+
+        assertFalse(new BuildManifest(file).isUpToDate(main.getPath(), ""));
+    }
+
+    @Test
+    public void printedOutputIsKept() throws IOException
+    {
+        File            main        = write("main.mocha", "class Main\n{\n}\n");
+        File            file        = new File(folder.getRoot(), "build.manifest");
+        BuildManifest   manifest    = new BuildManifest(file);
+        byte            printed[]   = "Main_get:\n\tmret\n".getBytes(StandardCharsets.UTF_8);
+
+        manifest.record(main.getPath(), "", inputs(main), printed);
+
+        assertArrayEquals(printed, manifest.getPrinted(main.getPath()));
+
+        manifest.write();
+
+        BuildManifest read = new BuildManifest(file);
+
+        assertTrue(read.isUpToDate(main.getPath(), ""));
+        assertArrayEquals(printed, read.getPrinted(main.getPath()));
+
+        for (File kept : new File(folder.getRoot(), "build.manifest.out").listFiles())
+            assertTrue(kept.delete());
+
+        assertFalse(new BuildManifest(file).isUpToDate(main.getPath(), ""));
+    }
+}
@@ -0,0 +1,56 @@
+package mochaxx.compiler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CommentsTest
+{
+    @Test
+    public void lineCommentsEndAtTheLineEnd()
+    {
+        assertEquals("int x \nint y\n", Comments.strip("int x // the x\nint y\n"));
+        assertEquals("int x ", Comments.strip("int x // no line end"));
+    }
+
+    @Test
+    public void blockCommentsKeepTheirLineEnds()
+    {
+        assertEquals("int x  int y\n", Comments.strip("int x /* one */ int y\n"));
+        assertEquals("a \n\n b\n", Comments.strip("a /* one\n#include \"gone.mxx\"\n */ b\n"));
+        assertEquals("a \n", Comments.strip("a /* never closed\n"));
+    }
+
+    @Test
+    public void markersInStringsAreKept()
+    {
+        assertEquals("s = \"http://x\" \n", Comments.strip("s = \"http://x\" // url\n"));
+        assertEquals("s = '/* \\' */' \n", Comments.strip("s = '/* \\' */' /* c */\n"));
+        assertEquals("s = \"open // x\nt\n", Comments.strip("s = \"open // x\nt\n"));
+    }
+
+    @Test
+    public void quotesAfterAWordStartNoString()
+    {
+        assertEquals("it's \n", Comments.strip("it's // gone\n"));
+    }
+
+    @Test
+    public void textWithoutSlashesIsReturnedAsItIs()
+    {
+        String text = "class A\n{\n}\n";
+
+        assertSame(text, Comments.strip(text));
+    }
+
+    @Test(timeout = 5000)
+    public void malformedCommentsEndInLinearTime()
+    {
+        StringBuilder text = new StringBuilder();
+
+        for (int i = 0; i < 100000; i ++)
+            text.append("/*/ */*");
+
+        assertEquals("*".repeat(100000), Comments.strip(text.toString()));
+    }
+}
@@ -0,0 +1,89 @@
+package mochaxx.compiler;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class DynamicLibraryLoaderTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes a file last modified 'age' milliseconds ago.
+     */
+    private File write(String name, String text, long age) throws IOException
+    {
+        File file = new File(folder.getRoot(), name);
+
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(System.currentTimeMillis() - age));
+
+        return file;
+    }
+
+    private String include(IncludeCache cache, File main, String name)
+    {
+        return new DynamicLibraryLoader(cache, null, main).include(name, new HashMap<>()).getI();
+    }
+
+    @Test
+    public void unchangedIncludesAreNotReadAgain() throws IOException
+    {
+        IncludeCache    cache   = new IncludeCache(IncludeCache.DEFAULT_CAPACITY);
+        File            main    = write("main.mocha", "#include \"outer.mxx\"\n", 60000);
+
+        write("outer.mxx", "#include \"inner.mxx\"\nclass Outer\n{\n}\n", 60000);
+        write("inner.mxx", "class Inner\n{\n}\n", 60000);
+
+        String  first   = include(cache, main, "outer.mxx");
+        long    read    = SourceLoader.getBytesRead();
+
+        assertEquals(first, include(cache, main, "outer.mxx"));
+        assertEquals(read, SourceLoader.getBytesRead());
+    }
+
+    @Test
+    public void changedNestedIncludesAreExpandedAgain() throws IOException
+    {
+        IncludeCache    cache   = new IncludeCache(IncludeCache.DEFAULT_CAPACITY);
+        File            main    = write("main.mocha", "#include \"outer.mxx\"\n", 60000);
+
+        write("outer.mxx", "#include \"inner.mxx\"\nclass Outer\n{\n}\n", 60000);
+        write("inner.mxx", "class Inner\n{\n}\n", 60000);
+
+        assertTrue(include(cache, main, "outer.mxx").contains("class Inner"));
+
+        write("inner.mxx", "class Changed\n{\n}\n", 30000);
+
+        String again = include(cache, main, "outer.mxx");
+
+        assertTrue(again.contains("class Changed"));
+        assertFalse(again.contains("class Inner"));
+    }
+
+    @Test
+    public void filesChangedJustBeforeTheyWereHashedAreHashedAgain() throws IOException
+    {
+        IncludeCache    cache   = new IncludeCache(IncludeCache.DEFAULT_CAPACITY);
+        File            main    = write("main.mocha", "#include \"lib.mxx\"\n", 60000);
+
+        write("lib.mxx", "class Lib\n{\n}\n", 0);
+
+        include(cache, main, "lib.mxx");
+
+        long read = SourceLoader.getBytesRead();
+
+        include(cache, main, "lib.mxx");
+
+        assertTrue(SourceLoader.getBytesRead() > read);
+    }
+}
@@ -0,0 +1,84 @@
+package mochaxx.compiler;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class IncludeCacheTest
+{
+    private static String hash(String text)
+    {
+        return IncludeCache.hash(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void sourcesAreKeyedByPathAndHash()
+    {
+        IncludeCache cache = new IncludeCache(1024);
+
+        cache.putSource("a.mxx", hash("one"), "one");
+
+        assertEquals("one", cache.getSource("a.mxx", hash("one")));
+        assertNull(cache.getSource("a.mxx", hash("two")));
+        assertNull(cache.getSource("b.mxx", hash("one")));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvictedFirst()
+    {
+        IncludeCache cache = new IncludeCache(3 * ("a.mxx".length() + 10));
+
+        cache.putSource("a.mxx", "1", "0123456789");
+        cache.putSource("b.mxx", "1", "0123456789");
+        cache.putSource("c.mxx", "1", "0123456789");
+
+        assertNotNull(cache.getSource("a.mxx", "1"));
+
+        cache.putSource("d.mxx", "1", "0123456789");
+
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(cache.getSource("a.mxx", "1"));
+        assertNull(cache.getSource("b.mxx", "1"));
+        assertNotNull(cache.getSource("c.mxx", "1"));
+        assertNotNull(cache.getSource("d.mxx", "1"));
+    }
+
+    @Test
+    public void anEntryLargerThanTheCacheIsStillKept()
+    {
+        IncludeCache cache = new IncludeCache(4);
+
+        cache.putSource("a.mxx", "1", "0123456789");
+
+        assertNotNull(cache.getSource("a.mxx", "1"));
+    }
+
+    @Test
+    public void expansionsAreKeyedByTheIncomingDefines()
+    {
+        IncludeCache        cache   = new IncludeCache(IncludeCache.DEFAULT_CAPACITY);
+        Map<String, String> defines = new HashMap<>();
+
+        defines.put("DEBUG", "");
+
+        IncludeCache.Expansion expansion = new IncludeCache.Expansion("int x\n", new SourceMap(), new HashMap<>(defines), new ArrayList<>());
+        cache.putExpansion("a.mxx", "1", defines, expansion);
+
+        defines.put("LATER", "");
+
+        assertNull(cache.getExpansion("a.mxx", "1", defines));
+
+        defines.remove("LATER");
+
+        assertSame(expansion, cache.getExpansion("a.mxx", "1", defines));
+        assertNull(cache.getExpansion("a.mxx", "1", new HashMap<>()));
+    }
+}
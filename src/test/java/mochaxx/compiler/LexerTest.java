@@ -0,0 +1,182 @@
+package mochaxx.compiler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class LexerTest
+{
+    /**
+     * @return each token as "TYPE [text] line offset whitespace".
+     */
+    private static List<String> describe(TokenBuffer tokens)
+    {
+        List<String> described = new ArrayList<>();
+
+        for (int i = 0; i < tokens.size(); i ++)
+        {
+            Token token = tokens.get(i);
+
+            described.add(token.getType() + " [" + token + "] " + token.line + " " + token.offset + " " + token.whitespace + (token.file == null ? "" : " " + token.file));
+        }
+
+        return described;
+    }
+
+    @Test
+    public void lexesWordsSeparatorsAndStrings()
+    {
+        String program = "class A1\n{\n\tint x = \"a \\\" b\" + 'c'\n}\n";
+
+        List<String> expected = List.of(
+                "CLASS [class] 1 0 0",
+                "IDENTIFIER [A1] 1 6 1",
+                "END [] -1 -1 -1",
+                "BRACES_OPEN [{] 2 0 0",
+                "END [] -1 -1 -1",
+                "IDENTIFIER [int] 3 4 4",
+                "IDENTIFIER [x] 3 8 5",
+                "EQUALS [=] 3 10 6",
+                "STRING [\"a \\\" b\"] 3 12 7",
+                "ADDITION [+] 3 21 8",
+                "STRING ['c'] 3 23 9",
+                "END [] -1 -1 -1",
+                "BRACES_CLOSED [}] 4 0 0",
+                "END [] -1 -1 -1");
+
+        assertEquals(expected, describe(new Lexer(program, null).lex()));
+    }
+
+    @Test
+    public void resetRestartsTheLineCount()
+    {
+        String program = "int a\n#reset\n  y.z(1)\n";
+
+        List<String> expected = List.of(
+                "IDENTIFIER [int] 1 0 0",
+                "IDENTIFIER [a] 1 4 1",
+                "END [] -1 -1 -1",
+                "END [] -1 -1 -1",
+                "IDENTIFIER [y] 1 2 2",
+                "PROCEDURAL_ACCESS [.] 1 3 2",
+                "IDENTIFIER [z] 1 4 2",
+                "PARENTHESIS_OPEN [(] 1 5 2",
+                "NUMBER [1] 1 6 2",
+                "PARENTHESIS_CLOSED [)] 1 7 2",
+                "END [] -1 -1 -1");
+
+        assertEquals(expected, describe(new Lexer(program, null).lex()));
+    }
+
+    @Test
+    public void stringsEndAtTheLineEnd()
+    {
+        List<String> tokens = describe(new Lexer("s = \"open\nt\n", null).lex());
+
+        assertEquals("STRING [\"open] 1 4 2", tokens.get(2));
+        assertEquals("IDENTIFIER [t] 2 0 0", tokens.get(4));
+    }
+
+    @Test
+    public void charactersOutsideAsciiStayInTheirWord()
+    {
+        List<String> tokens = describe(new Lexer("int \u00e9t\u00e9 = 1\n", null).lex());
+
+        assertTrue(tokens.get(1).contains("[\u00e9t\u00e9] 1 4 1"));
+        assertEquals("EQUALS [=] 1 8 2", tokens.get(2));
+    }
+
+    @Test
+    public void aLineAtATimeMatchesTheWholeProgram()
+    {
+        String      program = "class A\n{\n    int x = 'q'\n#reset\n    int y\n}\n";
+        Lexer       lexer   = new Lexer(program, null);
+        TokenBuffer line    = new TokenBuffer(program, new Symbols());
+        List<String> lines  = new ArrayList<>();
+
+        boolean more = true;
+
+        while (more)
+        {
+            line.clear();
+            more = lexer.next(line);
+            lines.addAll(describe(line));
+        }
+
+        assertEquals(describe(new Lexer(program, null).lex()), lines);
+    }
+
+    /**
+     * @return a program of 'lines' random lines of words, numbers, strings, separators,
+     * tabs and '#reset' directives.
+     */
+    private static String program(Random random, int lines)
+    {
+        String          pieces[]    = {"class", "x1", "return", "12", "3_000", "\"a b\"", "'q\\'r'", "\"open", "=", "+", ".", "(", ")", "{", "}", "#", "\u00e9", " ", "  ", "\t"};
+        StringBuilder   program     = new StringBuilder();
+
+        for (int line = 0; line < lines; line ++)
+        {
+            if (random.nextInt(8) == 0)
+                program.append(random.nextBoolean() ? "#reset" : "  #reset x");
+            else
+                for (int i = random.nextInt(8); i > 0; i --)
+                    program.append(pieces[random.nextInt(pieces.length)]).append(random.nextBoolean() ? " " : "");
+
+            program.append('\n');
+        }
+
+        return program.toString();
+    }
+
+    @Test
+    public void mappedTokensTakeTheirLineAndFileFromTheMap()
+    {
+        SourceMap map = new SourceMap();
+
+        map.add("lib.mxx", 10);
+        map.add("main.mocha", 3);
+
+        List<String> tokens = describe(new Lexer("int a\n  b\n", map).lex());
+
+        assertEquals("IDENTIFIER [int] 10 0 0 lib.mxx", tokens.get(0));
+        assertEquals("IDENTIFIER [a] 10 4 1 lib.mxx", tokens.get(1));
+        assertEquals("IDENTIFIER [b] 3 2 2 main.mocha", tokens.get(3));
+        assertEquals("END [] -1 -1 -1", tokens.get(4));
+    }
+
+    @Test
+    public void chunksLexLikeOneLexer()
+    {
+        Random          random  = new Random(16);
+        ForkJoinPool    pool    = new ForkJoinPool(4);
+
+        try {
+            for (int run = 0; run < 200; run ++)
+            {
+                String      program = program(random, 1 + random.nextInt(40));
+                SourceMap   map     = null;
+
+                if (run % 2 == 1)
+                {
+                    map = new SourceMap();
+
+                    for (int line = 1; line <= program.length(); line ++)
+                        map.add(line % 7 < 3 ? "lib.mxx" : "main.mocha", line);
+                }
+
+                List<String> expected = describe(new Lexer(program, map).lex());
+
+                for (int chunk : new int[] {1, 2, 7, 31, 200})
+                    assertEquals(program + " in chunks of " + chunk, expected, describe(Lexer.lex(program, map, new Symbols(), pool, chunk)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
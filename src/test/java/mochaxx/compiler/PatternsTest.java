@@ -0,0 +1,133 @@
+package mochaxx.compiler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static mochaxx.compiler.Token.Type.*;
+import static org.junit.Assert.*;
+
+public class PatternsTest
+{
+    private enum Rule
+    {
+        FIRST, SECOND, THIRD, FOURTH, FIFTH, SIXTH, OTHER
+    }
+
+    private static final Token.Type CONCRETE[]  = { IDENTIFIER, EQUALS, END, SUBTRACTION, ADDITION, COLON };
+    private static final Token.Type WILDCARDS[] = { ANY, ANY_NOT_END, ANY_NOT_SUBEND };
+
+    private static Token.Type[] pattern(Random random)
+    {
+        Token.Type pattern[] = new Token.Type[1 + random.nextInt(4)];
+
+        for (int i = 0; i < pattern.length; i ++)
+            pattern[i] = random.nextInt(4) == 0 ? WILDCARDS[random.nextInt(WILDCARDS.length)] : CONCRETE[random.nextInt(CONCRETE.length)];
+
+        return pattern;
+    }
+
+    private static TokenStream stream(Random random)
+    {
+        List<Token> tokens = new ArrayList<>();
+
+        for (int i = random.nextInt(6); i > 0; i --)
+            tokens.add(new Token(CONCRETE[random.nextInt(CONCRETE.length)]));
+
+        return new TokenStream(tokens);
+    }
+
+    /**
+     * Patterns match exactly when the if / else chain of in.matches() calls they replace
+     * would have: a rule matches if one of its patterns does and none of its exclusions.
+     */
+    @Test
+    public void matchesLikeTokenStreamMatches()
+    {
+        Random random = new Random(24);
+
+        for (int run = 0; run < 500; run ++)
+        {
+            Patterns<Rule>              patterns    = new Patterns<>(Rule.class);
+            List<List<Token.Type[]>>    added       = new ArrayList<>();
+            List<List<Token.Type[]>>    excluded    = new ArrayList<>();
+
+            for (Rule rule : Rule.values())
+            {
+                added.add(new ArrayList<>());
+                excluded.add(new ArrayList<>());
+            }
+
+            for (int i = random.nextInt(12); i > 0; i --)
+            {
+                Rule        rule    = Rule.values()[random.nextInt(Rule.OTHER.ordinal())];
+                Token.Type  types[] = pattern(random);
+
+                if (random.nextInt(5) == 0)
+                {
+                    patterns.exclude(rule, types);
+                    excluded.get(rule.ordinal()).add(types);
+                }
+                else
+                {
+                    patterns.add(rule, types);
+                    added.get(rule.ordinal()).add(types);
+                }
+            }
+
+            patterns.compile();
+
+            for (int i = 0; i < 20; i ++)
+            {
+                TokenStream in       = stream(random);
+                long        expected = 0;
+
+                for (Rule rule : Rule.values())
+                {
+                    boolean matches = false;
+
+                    for (Token.Type types[] : added.get(rule.ordinal()))
+                        matches |= in.matches(types);
+
+                    for (Token.Type types[] : excluded.get(rule.ordinal()))
+                        matches &= !in.matches(types);
+
+                    if (matches)
+                        expected |= 1L << rule.ordinal();
+                }
+
+                assertEquals(expected, patterns.match(in));
+            }
+        }
+    }
+
+    @Test
+    public void theFirstRuleInDeclarationOrderWins()
+    {
+        Patterns<Rule> patterns = new Patterns<>(Rule.class)
+                .add(Rule.THIRD, IDENTIFIER)
+                .add(Rule.SECOND, IDENTIFIER, COLON)
+                .exclude(Rule.SECOND, IDENTIFIER, COLON, COLON)
+                .compile();
+
+        TokenStream label   = new TokenStream(List.of(new Token(IDENTIFIER), new Token(COLON), new Token(END)));
+        TokenStream scope   = new TokenStream(List.of(new Token(IDENTIFIER), new Token(COLON), new Token(COLON)));
+        TokenStream other   = new TokenStream(List.of(new Token(EQUALS)));
+
+        assertEquals(Rule.SECOND, patterns.first(patterns.match(label), Rule.OTHER));
+        assertEquals(Rule.THIRD, patterns.first(patterns.match(scope), Rule.OTHER));
+        assertEquals(Rule.OTHER, patterns.first(patterns.match(other), Rule.OTHER));
+
+        long rules = patterns.match(label);
+
+        assertEquals(Rule.THIRD, patterns.first(rules & rules - 1, Rule.OTHER));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void patternsAreCompiledBeforeTheyMatch()
+    {
+        new Patterns<>(Rule.class).add(Rule.FIRST, END).match(new TokenStream(List.of(new Token(END))));
+    }
+}
@@ -0,0 +1,90 @@
+package mochaxx.compiler;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class PreprocessedProgramTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String name, String text) throws IOException
+    {
+        File file = new File(folder.getRoot(), name);
+
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+
+        return file;
+    }
+
+    private String preprocess(String program) throws IOException
+    {
+        File main = write("main.mocha", program);
+
+        return new PreprocessedProgram(program, main, new DynamicLibraryLoader(new IncludeCache(IncludeCache.DEFAULT_CAPACITY), null, main)).getFinalProgram();
+    }
+
+    private static int count(String text, String part)
+    {
+        int count = 0;
+
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1))
+            count ++;
+
+        return count;
+    }
+
+    @Test
+    public void pragmaOnceFilesExpandOnce() throws IOException
+    {
+        write("b.mxx", "#pragma once\nclass B\n{\n}\n");
+        write("a.mxx", "#include \"b.mxx\"\nclass A\n{\n}\n");
+
+        String program = preprocess("#include \"b.mxx\"\n#include \"a.mxx\"\n#include \"b.mxx\"\nclass Main\n{\n}\n");
+
+        assertEquals(1, count(program, "class B"));
+        assertEquals(1, count(program, "class A"));
+        assertFalse(program.contains("#pragma"));
+    }
+
+    @Test
+    public void guardedFilesExpandOnce() throws IOException
+    {
+        write("c.mxx", "#ifndef C_H\n#define C_H\nclass C\n{\n}\n#endif\n");
+
+        String program = preprocess("#include \"c.mxx\"\n#include \"c.mxx\"\nclass Main\n{\n}\n");
+
+        assertEquals(1, count(program, "class C"));
+    }
+
+    @Test
+    public void otherFilesExpandEveryTime() throws IOException
+    {
+        write("d.mxx", "int d\n");
+
+        String program = preprocess("class Main\n{\n#include \"d.mxx\"\n#include \"d.mxx\"\n}\n");
+
+        assertEquals(2, count(program, "int d"));
+    }
+
+    @Test
+    public void filesThatIncludeThemselvesAreReported() throws IOException
+    {
+        write("r.mxx", "#include \"r.mxx\"\nclass R\n{\n}\n");
+
+        try {
+            preprocess("#include \"r.mxx\"\nclass Main\n{\n}\n");
+            fail("a recursive include was expanded.");
+        } catch (CompileError e) {
+            assertTrue(e.getMessage().contains("recursive include"));
+        }
+    }
+}
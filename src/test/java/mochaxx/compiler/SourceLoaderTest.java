@@ -0,0 +1,71 @@
+package mochaxx.compiler;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class SourceLoaderTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String decode(String source) throws IOException
+    {
+        return SourceLoader.decode(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void asciiIsKeptAsItIs() throws IOException
+    {
+        assertEquals("class A\n{\n}\n", decode("class A\n{\n}\n"));
+        assertEquals("", decode(""));
+    }
+
+    @Test
+    public void lineEndsAreFolded() throws IOException
+    {
+        assertEquals("a\nb\nc\n", decode("a\r\nb\rc\r\n"));
+        assertEquals("a\nb\n", decode("a\nb"));
+        assertEquals("\u00e9\n\u00fc\n", decode("\u00e9\r\n\u00fc"));
+    }
+
+    @Test
+    public void onlyThePartOfABufferAheadIsDecoded() throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap("skip;int x\n".getBytes(StandardCharsets.US_ASCII), 5, 6).slice();
+
+        assertEquals("int x\n", SourceLoader.decode(buffer));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void utf8IsDecoded() throws IOException
+    {
+        assertEquals("string s = \"caf\u00e9 \u2713\"\n", decode("string s = \"caf\u00e9 \u2713\"\n"));
+    }
+
+    @Test
+    public void mappedFilesReadLikeSmallOnes() throws IOException
+    {
+        StringBuilder source = new StringBuilder();
+
+        for (int line = 0; source.length() < SourceLoader.MAP_THRESHOLD; line ++)
+            source.append("int field").append(line).append("\r\n");
+
+        File large = folder.newFile("large.mocha");
+        Files.write(large.toPath(), source.toString().getBytes(StandardCharsets.US_ASCII));
+
+        String expected = source.toString().replace("\r\n", "\n");
+
+        assertFalse(SourceLoader.readBytes(large).hasArray());
+        assertEquals(expected, SourceLoader.read(large));
+        assertEquals(expected, SourceLoader.read(new FileInputStream(large)));
+    }
+}
@@ -0,0 +1,100 @@
+package mochaxx.compiler;
+
+import org.junit.Test;
+
+import java.io.*;
+
+import static org.junit.Assert.*;
+
+public class SourceMapTest
+{
+    @Test
+    public void consecutiveLinesShareARange()
+    {
+        SourceMap map = new SourceMap();
+
+        for (int line = 1; line <= 100; line ++)
+            map.add("main.mocha", line);
+
+        assertEquals(100, map.size());
+        assertEquals(1, map.getLine(1));
+        assertEquals(57, map.getLine(57));
+        assertEquals("main.mocha", map.getFile(100));
+    }
+
+    @Test
+    public void includedLinesMapToTheirFile()
+    {
+        SourceMap map = new SourceMap();
+
+        map.add("main.mocha", 1);
+        map.add("lib.mxx", 1);
+        map.add("lib.mxx", 2);
+        map.add("lib.mxx", 5);
+        map.add("main.mocha", 3);
+
+        assertEquals("main.mocha", map.getFile(1));
+        assertEquals("lib.mxx", map.getFile(2));
+        assertEquals(2, map.getLine(3));
+        assertEquals(5, map.getLine(4));
+        assertEquals("main.mocha", map.getFile(5));
+        assertEquals(3, map.getLine(5));
+    }
+
+    @Test
+    public void unmappedLinesAreTheirOwn()
+    {
+        SourceMap map = new SourceMap();
+
+        map.add("main.mocha", 4);
+
+        assertEquals(0, map.getLine(0));
+        assertEquals(9, map.getLine(9));
+        assertNull(map.getFile(9));
+    }
+
+    @Test
+    public void writeAndReadKeepTheRanges() throws IOException
+    {
+        SourceMap map = new SourceMap();
+
+        map.add("main.mocha", 1);
+        map.add("lib.mxx", 7);
+        map.add("lib.mxx", 8);
+        map.add("main.mocha", 2);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        map.write(new DataOutputStream(bytes));
+
+        SourceMap read = SourceMap.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(map.size(), read.size());
+
+        for (int output = 1; output <= map.size(); output ++)
+        {
+            assertEquals(map.getFile(output), read.getFile(output));
+            assertEquals(map.getLine(output), read.getLine(output));
+        }
+    }
+
+    @Test
+    public void tokensCarryTheFileTheyCameFrom()
+    {
+        SourceMap map = new SourceMap();
+
+        map.add("main.mocha", 1);
+        map.add("lib.mxx", 12);
+
+        TokenBuffer tokens = new Lexer("class A\nint x\n", map).lex();
+
+        assertEquals("main.mocha", tokens.get(0).file);
+        assertEquals(1, tokens.get(0).line);
+
+        Token field = tokens.get(tokens.size() - 2);
+
+        assertEquals("x", field.toString());
+        assertEquals("lib.mxx", field.file);
+        assertEquals(12, field.line);
+        assertTrue(field.infoString().startsWith("file: lib.mxx line: 12"));
+    }
+}
@@ -0,0 +1,104 @@
+package mochaxx.compiler;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TokenSourceTest
+{
+    /**
+     * A class whose field list alone is longer than the ring a source starts with.
+     */
+    private static String program()
+    {
+        StringBuilder program = new StringBuilder("class Wide\n{\n");
+
+        for (int i = 0; i < 200; i ++)
+            program.append("    int field").append(i).append(" = ").append(i).append('\n');
+
+        return program.append("}\n").toString();
+    }
+
+    private static void assertSame(Token expected, Token actual)
+    {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(expected.line, actual.line);
+        assertEquals(expected.offset, actual.offset);
+    }
+
+    @Test
+    public void streamsTheCleanTokens()
+    {
+        LexedProgram    lexed   = new LexedProgram(program());
+        List<Token>     clean   = lexed.getCleanTokens();
+        TokenSource     source  = new TokenSource(program(), null, new Symbols());
+
+        for (Token token : clean)
+            assertSame(token, source.poll());
+
+        assertNull(source.peek());
+        assertNull(source.poll());
+    }
+
+    @Test
+    public void looksFurtherAheadThanTheRing()
+    {
+        List<Token> clean   = new LexedProgram(program()).getCleanTokens();
+        TokenSource source  = new TokenSource(program(), null, new Symbols());
+        int         far     = TokenSource.CAPACITY * 8 + 3;
+
+        assertSame(clean.get(far), source.peek(far));
+        assertSame(clean.get(0), source.peek());
+
+        for (int i = 0; i < 10; i ++)
+            source.poll();
+
+        assertSame(clean.get(far), source.peek(far - 10));
+        assertNull(source.peek(clean.size() - 10));
+
+        for (int i = 10; i < clean.size(); i ++)
+            assertSame(clean.get(i), source.poll());
+
+        assertNull(source.peek());
+    }
+
+    @Test
+    public void handsOutALexedBufferTheSameWay()
+    {
+        LexedProgram    lexed   = new LexedProgram(program());
+        List<Token>     clean   = lexed.getCleanTokens();
+        TokenSource     source  = new TokenSource(lexed.getTokens());
+
+        assertSame(clean.get(clean.size() - 1), source.peek(clean.size() - 1));
+
+        for (Token token : clean)
+            assertSame(token, source.poll());
+
+        assertNull(source.poll());
+    }
+
+    @Test
+    public void aStreamOverASourceReadsLikeOneOverTheTokens()
+    {
+        List<Token> clean   = new LexedProgram(program()).getCleanTokens();
+        TokenStream stream  = new TokenStream(new TokenSource(program(), null, new Symbols()));
+        TokenStream array   = new TokenStream(clean);
+
+        for (TokenStream in : new TokenStream[] { stream, array })
+        {
+            assertSame(clean.get(3), in.peek(3));
+
+            for (Token token : clean)
+            {
+                assertFalse(in.end());
+                assertSame(token, in.poll());
+            }
+
+            assertTrue(in.end());
+            assertNull(in.peek());
+        }
+    }
+}
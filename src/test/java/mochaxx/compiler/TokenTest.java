@@ -0,0 +1,103 @@
+package mochaxx.compiler;
+
+import org.junit.Test;
+
+import static mochaxx.compiler.Token.Type.*;
+import static org.junit.Assert.*;
+
+public class TokenTest
+{
+    private static Token.Type classify(String text)
+    {
+        return Token.classify(text, 0, text.length());
+    }
+
+    @Test
+    public void keywordsClassifyAsTheirType()
+    {
+        String      keywords[]  = {"if", "else", "struct", "try", "catch", "goto", "in", "for", "namespace", "package", "typedef", "op", "function", "template", "fun", "new", "class", "static", "ref", "reference", "ptr", "native", "public", "private", "protected", "const", "final", "extend", "extends", "header", "while", "foreach", "then", "return"};
+        Token.Type  types[]     = {IF, ELSE, CLASS, TRY, CATCH, GOTO, IN, FOR, NAMESPACE, NAMESPACE, TYPEDEF, KEYWORD, KEYWORD, TEMPLATE, KEYWORD, NEW, CLASS, KEYWORD, KEYWORD, KEYWORD, KEYWORD, KEYWORD, KEYWORD, KEYWORD, KEYWORD, KEYWORD, KEYWORD, KEYWORD, EXTEND, KEYWORD, KEYWORD, FOREACH, KEYWORD, RETURN};
+
+        for (int i = 0; i < keywords.length; i ++)
+        {
+            assertEquals(keywords[i], types[i], classify(keywords[i]));
+            assertEquals(keywords[i], types[i], new Token(keywords[i], 1, 0, 0).getType());
+        }
+    }
+
+    @Test
+    public void nearKeywordsAreIdentifiers()
+    {
+        for (String word : new String[] {"iff", "i", "classes", "Class", "retur", "returns", "x", "_tmp", "int", "a1"})
+            assertEquals(word, IDENTIFIER, classify(word));
+
+        assertEquals("if".hashCode(), "jG".hashCode());
+        assertEquals(IDENTIFIER, classify("jG"));
+    }
+
+    @Test
+    public void classifiesASliceOfTheSource()
+    {
+        String source = "xreturn if9";
+
+        assertEquals(RETURN, Token.classify(source, 1, 6));
+        assertEquals(IF, Token.classify(source, 8, 2));
+        assertEquals(IDENTIFIER, Token.classify(source, 8, 3));
+        assertEquals(IDENTIFIER, Token.classify(source, 0, 7));
+    }
+
+    @Test
+    public void otherTextIsNotAWord()
+    {
+        assertEquals(UNDEFINED, classify(""));
+        assertEquals(UNDEFINED, classify("a-b"));
+        assertEquals(UNDEFINED, classify("\u00e9t\u00e9"));
+        assertEquals(STRING, classify("\"if\""));
+        assertEquals(NUMBER, classify("12"));
+        assertEquals(PROCEDURAL_ACCESS, classify("."));
+    }
+
+    @Test
+    public void literalsParseToTheirType()
+    {
+        assertEquals(0L, Token.literal("0"));
+        assertEquals(1000000L, Token.literal("1_000_000"));
+        assertEquals(7L, Token.literal("7l"));
+        assertEquals(7L, Token.literal("7L"));
+        assertEquals(1.5f, Token.literal("1.5f"));
+        assertEquals(2f, Token.literal("2F"));
+        assertEquals(2.5, Token.literal("2.5"));
+        assertEquals(3.0, Token.literal("3d"));
+        assertEquals(1000.25, Token.literal("1_000.25"));
+    }
+
+    @Test
+    public void literalsThatDoNotFitAreNull()
+    {
+        assertEquals(Long.MAX_VALUE, Token.literal(Long.toString(Long.MAX_VALUE)));
+        assertNull(Token.literal("9223372036854775808"));
+        assertNull(Token.literal("99999999999999999999"));
+        assertNull(Token.literal("1.5l"));
+        assertNull(Token.literal("12a"));
+        assertNull(Token.literal(""));
+    }
+
+    @Test
+    public void suffixesAreNumbers()
+    {
+        for (String number : new String[] {"1f", "1d", "1l", "1_0L", "10"})
+            assertEquals(number, NUMBER, classify(number));
+
+        assertEquals(UNDEFINED, classify("1x"));
+        assertEquals(UNDEFINED, classify("1ff"));
+    }
+
+    @Test
+    public void lexedNumbersCarryTheirValue()
+    {
+        TokenBuffer tokens = new Lexer("int x = 4_096\n", null).lex();
+
+        assertEquals(4096L, tokens.get(3).value);
+        assertNull(tokens.get(1).value);
+    }
+}